@@ -15,6 +15,7 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewTreeObserver;
+import android.view.WindowManager;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.TextView;
@@ -33,15 +34,20 @@ import com.hiddenramblings.tagmo.amiibo.KeyManager;
 import com.hiddenramblings.tagmo.eightbit.Foomiibo;
 import com.hiddenramblings.tagmo.eightbit.io.Debug;
 import com.hiddenramblings.tagmo.eightbit.material.IconifiedSnackbar;
+import com.hiddenramblings.tagmo.nfctech.EliteBankCache;
 import com.hiddenramblings.tagmo.nfctech.NTAG215;
 import com.hiddenramblings.tagmo.nfctech.TagReader;
+import com.hiddenramblings.tagmo.nfctech.TagStation;
 import com.hiddenramblings.tagmo.nfctech.TagUtils;
 import com.hiddenramblings.tagmo.nfctech.TagWriter;
+import com.hiddenramblings.tagmo.nfctech.TransceiveTuning;
 import com.hiddenramblings.tagmo.settings.Preferences_;
+import com.hiddenramblings.tagmo.widget.Toasty;
 import com.shawnlin.numberpicker.NumberPicker;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 
 public class NfcActivity extends AppCompatActivity {
@@ -65,6 +71,7 @@ public class NfcActivity extends AppCompatActivity {
     private int write_count;
     private String tagTech;
     private boolean hasTestedElite;
+    private TagStation station;
 
     private final Foomiibo foomiibo = new Foomiibo();
 
@@ -104,6 +111,7 @@ public class NfcActivity extends AppCompatActivity {
         switch (action) {
             case NFCIntent.ACTION_WRITE_TAG_FULL:
             case NFCIntent.ACTION_WRITE_TAG_DATA:
+            case NFCIntent.ACTION_WRITE_TAG_BATCH:
                 if (this.keyManager.isKeyMissing()) {
                     showError("Keys not loaded");
                     this.nfcAdapter = null;
@@ -138,6 +146,11 @@ public class NfcActivity extends AppCompatActivity {
         String mode = commandIntent.getAction();
 
         isEliteIntent = commandIntent.hasExtra(NFCIntent.EXTRA_SIGNATURE);
+        if (isEliteIntent)
+            TagWriter.preloadFirmware();
+        else if (NFCIntent.ACTION_WRITE_TAG_FULL.equals(mode))
+            TagWriter.preloadPowerTag(
+                    commandIntent.getByteArrayExtra(NFCIntent.EXTRA_TAG_DATA), keyManager);
         if (commandIntent.hasExtra(NFCIntent.EXTRA_CURRENT_BANK)) {
             setPosition(bankPicker, commandIntent.getIntExtra(
                     NFCIntent.EXTRA_CURRENT_BANK, getPosition(bankPicker)));
@@ -162,6 +175,7 @@ public class NfcActivity extends AppCompatActivity {
                 bankPicker.setMaxValue(prefs.eliteBankCount().get());
                 break;
             case NFCIntent.ACTION_WRITE_ALL_TAGS:
+            case NFCIntent.ACTION_WRITE_TAG_BATCH:
             case NFCIntent.ACTION_ERASE_ALL_TAGS:
             case NFCIntent.ACTION_SCAN_TAG:
             case NFCIntent.ACTION_SET_BANK_COUNT:
@@ -194,6 +208,12 @@ public class NfcActivity extends AppCompatActivity {
             case NFCIntent.ACTION_WRITE_ALL_TAGS:
                 setTitle(R.string.write_collection);
                 break;
+            case NFCIntent.ACTION_WRITE_TAG_BATCH:
+                setTitle(R.string.tag_station);
+                // Keep the reader available for the whole run
+                getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+                station = new TagStation(keyManager, getQueuedPayloads(commandIntent, true));
+                break;
             case NFCIntent.ACTION_ERASE_ALL_TAGS:
                 setTitle(R.string.erase_collection);
                 break;
@@ -236,6 +256,15 @@ public class NfcActivity extends AppCompatActivity {
     protected void onPause() {
         super.onPause();
         stopNfcMonitor();
+        // The session is over, so keep what it learned
+        TransceiveTuning.commitAll();
+        EliteBankCache.commitAll();
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (null != station) station.close();
+        super.onDestroy();
     }
 
     @Override
@@ -258,6 +287,10 @@ public class NfcActivity extends AppCompatActivity {
         this.runOnUiThread(() -> txtMessage.setText(getString(msgRes, params)));
     }
 
+    private void showMessage(int msgRes, int param1, int param2) {
+        this.runOnUiThread(() -> txtMessage.setText(getString(msgRes, param1, param2)));
+    }
+
     private void showError(String msg) {
         this.runOnUiThread(() -> {
             txtError.setText(msg);
@@ -277,6 +310,40 @@ public class NfcActivity extends AppCompatActivity {
         imgNfcBar.setAnimation(nfcAnimation);
     }
 
+    /**
+     * Loads each queued amiibo, either validated and encrypted or, when the
+     * caller patches it first, only decrypted
+     */
+    private ArrayList<Callable<byte[]>> getQueuedPayloads(
+            Intent commandIntent, boolean decrypted
+    ) {
+        ArrayList<Callable<byte[]>> payloads = new ArrayList<>();
+        if (commandIntent.hasExtra(NFCIntent.EXTRA_AMIIBO_FILES)) {
+            ArrayList<AmiiboFile> amiiboList = commandIntent
+                    .getParcelableArrayListExtra(NFCIntent.EXTRA_AMIIBO_FILES);
+            for (AmiiboFile amiiboFile : amiiboList) {
+                payloads.add(() -> {
+                    byte[] tagData = amiiboFile.getData();
+                    byte[] plain = null != tagData ? keyManager.decrypt(tagData)
+                            : TagUtils.getDecryptedFile(keyManager, amiiboFile.getFilePath());
+                    return decrypted || null == plain ? plain : keyManager.encrypt(plain);
+                });
+            }
+        } else if (commandIntent.hasExtra(NFCIntent.EXTRA_AMIIBO_LIST)) {
+            ArrayList<Amiibo> amiiboList = commandIntent
+                    .getParcelableArrayListExtra(NFCIntent.EXTRA_AMIIBO_LIST);
+            for (Amiibo amiibo : amiiboList) {
+                payloads.add(() -> {
+                    byte[] tagData = foomiibo.generateData(amiibo.id);
+                    byte[] plain = null != tagData ? keyManager.decrypt(tagData)
+                            : TagUtils.getDecryptedData(keyManager, amiibo.data);
+                    return decrypted || null == plain ? plain : keyManager.encrypt(plain);
+                });
+            }
+        }
+        return payloads;
+    }
+
     private void closeTagSilently(NTAG215 mifare) {
         if (null != mifare) {
             try {
@@ -302,7 +369,8 @@ public class NfcActivity extends AppCompatActivity {
                 hasTestedElite = true;
                 if (TagUtils.isPowerTag(mifare)) {
                     showMessage(R.string.tag_scanning, getString(R.string.power_tag));
-                } else if (prefs.enable_elite_support().get()) {
+                } else if (prefs.enable_elite_support().get()
+                        && !NFCIntent.ACTION_WRITE_TAG_BATCH.equals(mode)) {
                     isEliteDevice = TagUtils.isElite(mifare)
                             || NFCIntent.ACTION_UNLOCK_UNIT.equals(mode);
                     if (isEliteDevice)
@@ -382,6 +450,23 @@ public class NfcActivity extends AppCompatActivity {
                         }
                         break;
 
+                    case NFCIntent.ACTION_WRITE_TAG_BATCH:
+                        station.writeNext(mifare, prefs.enable_tag_type_validation().get());
+                        if (!station.isFinished()) {
+                            // The next blank tag continues the queue
+                            this.runOnUiThread(() -> {
+                                clearError();
+                                txtMessage.setText(getString(R.string.station_progress,
+                                        station.getPosition(), station.getCount(),
+                                        station.getTagsPerMinute()));
+                            });
+                            return;
+                        }
+                        if (station.getSkipped() > 0) new Toasty(this).Long(getString(
+                                R.string.station_skipped, station.getSkipped()));
+                        setResult(Activity.RESULT_OK);
+                        break;
+
                     case NFCIntent.ACTION_WRITE_TAG_DATA:
                         boolean ignoreUid = commandIntent.getBooleanExtra(
                                 NFCIntent.EXTRA_IGNORE_TAG_ID, false);
@@ -393,31 +478,9 @@ public class NfcActivity extends AppCompatActivity {
                     case NFCIntent.ACTION_WRITE_ALL_TAGS:
                         mifare.setBankCount(write_count);
                         if (active_bank <= write_count) mifare.activateBank(active_bank);
-                        if (commandIntent.hasExtra(NFCIntent.EXTRA_AMIIBO_FILES)) {
-                            ArrayList<AmiiboFile> amiiboList = commandIntent
-                                    .getParcelableArrayListExtra(NFCIntent.EXTRA_AMIIBO_FILES);
-                            for (int x = 0; x < amiiboList.size(); x++) {
-                                txtMessage.setText(getString(R.string.bank_writing,
-                                        x + 1, amiiboList.size()));
-                                byte[] tagData = amiiboList.get(x).getData();
-                                if (null == tagData)
-                                    tagData = TagUtils.getValidatedFile(keyManager,
-                                            amiiboList.get(x).getFilePath());
-                                TagWriter.writeEliteAuto(mifare, tagData, keyManager, x);
-                            }
-                        } else if (commandIntent.hasExtra(NFCIntent.EXTRA_AMIIBO_LIST)) {
-                            ArrayList<Amiibo> amiiboList = commandIntent
-                                    .getParcelableArrayListExtra(NFCIntent.EXTRA_AMIIBO_LIST);
-                            for (int x = 0; x < amiiboList.size(); x++) {
-                                txtMessage.setText(getString(R.string.bank_writing,
-                                        x + 1, amiiboList.size()));
-                                byte[] tagData = foomiibo.generateData(amiiboList.get(x).id);
-                                if (null == tagData)
-                                    tagData = TagUtils.getValidatedData(keyManager,
-                                            amiiboList.get(x).data);
-                                TagWriter.writeEliteAuto(mifare, tagData, keyManager, x);
-                            }
-                        }
+                        TagWriter.writeEliteBanks(mifare,
+                                getQueuedPayloads(commandIntent, false), (bank, count) ->
+                                showMessage(R.string.bank_writing, bank + 1, count));
                         Intent write = new Intent(NFCIntent.ACTION_NFC_SCANNED);
                         write.putExtra(NFCIntent.EXTRA_BANK_COUNT, write_count);
                         args.putStringArrayList(NFCIntent.EXTRA_AMIIBO_LIST,
@@ -428,11 +491,8 @@ public class NfcActivity extends AppCompatActivity {
                     case NFCIntent.ACTION_ERASE_ALL_TAGS:
                         mifare.setBankCount(write_count);
                         mifare.activateBank(0);
-                        for (int x = 1; x < write_count; x++) {
-                            txtMessage.setText(getString(R.string.bank_erasing,
-                                    x + 1, write_count));
-                            TagWriter.wipeBankData(mifare, x);
-                        }
+                        TagWriter.wipeBanks(mifare, 1, write_count - 1, (bank, count) ->
+                                showMessage(R.string.bank_erasing, bank + 1, count));
                         Intent erase = new Intent(NFCIntent.ACTION_NFC_SCANNED);
                         erase.putExtra(NFCIntent.EXTRA_BANK_COUNT, write_count);
                         erase.putExtra(NFCIntent.EXTRA_ACTIVE_BANK, 0);
@@ -460,8 +520,7 @@ public class NfcActivity extends AppCompatActivity {
                         Intent result = new Intent(NFCIntent.ACTION_NFC_SCANNED);
                         if (isEliteDevice) {
                             if (commandIntent.hasExtra(NFCIntent.EXTRA_CURRENT_BANK)) {
-                                data = TagUtils.getValidatedData(keyManager,
-                                        TagReader.scanBankToBytes(mifare, selection));
+                                data = TagReader.scanBankValidated(mifare, selection, keyManager);
                                 args.putByteArray(NFCIntent.EXTRA_TAG_DATA, data);
                                 result.putExtra(NFCIntent.EXTRA_CURRENT_BANK, selection);
                             } else {
@@ -507,8 +566,7 @@ public class NfcActivity extends AppCompatActivity {
 
                     case NFCIntent.ACTION_LOCK_AMIIBO:
                         try {
-                            TagUtils.getValidatedData(keyManager,
-                                    TagReader.scanBankToBytes(mifare, active_bank));
+                            TagReader.scanBankValidated(mifare, active_bank, keyManager);
                         } catch (Exception ex) {
                             throw new Exception(getString(R.string.fail_lock));
                         }
@@ -544,7 +602,8 @@ public class NfcActivity extends AppCompatActivity {
             Debug.Warn(e);
             String error = e.getMessage();
             error = null != e.getCause() ? error + "\n" + e.getCause().toString() : error;
-            if (null != error && prefs.enable_elite_support().get()) {
+            // A failed tag in station mode leaves the queue open for the next
+            if (null != error && prefs.enable_elite_support().get() && null == station) {
                 if (e instanceof android.nfc.TagLostException) {
                     showMessage(R.string.speed_scan);
                     closeTagSilently(mifare);
@@ -18,6 +18,17 @@ public class AmiiboFileComparator implements Comparator<AmiiboFile> {
 
     @Override
     public int compare(AmiiboFile amiiboFile1, AmiiboFile amiiboFile2) {
+        AmiiboManager amiiboManager = settings.getAmiiboManager();
+        if (null == amiiboManager) return compare(amiiboFile1, null, amiiboFile2, null);
+        return compare(amiiboFile1, amiiboManager.amiibos.get(amiiboFile1.getId()),
+                amiiboFile2, amiiboManager.amiibos.get(amiiboFile2.getId()));
+    }
+
+    /**
+     * Compares files whose database entries were already looked up
+     */
+    public int compare(AmiiboFile amiiboFile1, Amiibo amiibo1,
+                       AmiiboFile amiiboFile2, Amiibo amiibo2) {
         int value = 0;
         int sort = settings.getSort();
 
@@ -38,10 +49,7 @@ public class AmiiboFileComparator implements Comparator<AmiiboFile> {
         if (sort == SORT.ID.getValue()) {
             value = compareAmiiboId(amiiboId1, amiiboId2);
         } else if (value == 0) {
-            AmiiboManager amiiboManager = settings.getAmiiboManager();
-            if (null != amiiboManager) {
-                Amiibo amiibo1 = amiiboManager.amiibos.get(amiiboId1);
-                Amiibo amiibo2 = amiiboManager.amiibos.get(amiiboId2);
+            if (null != settings.getAmiiboManager()) {
                 if (null == amiibo1 && null == amiibo2)
                     //noinspection all
                     value = 0;
@@ -0,0 +1,404 @@
+package com.hiddenramblings.tagmo.amiibo;
+
+import com.hiddenramblings.tagmo.amiibo.games.GameTitles;
+import com.hiddenramblings.tagmo.amiibo.games.GamesManager;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles browser queries such as
+ * {@code series:"Super Smash Bros." type:figure -character:mario id:0x01*}
+ * into a predicate over the amiibo id bit fields.
+ *
+ * Terms are combined with implicit AND, {@code OR} or {@code |}, negated with
+ * {@code -} or {@code NOT} and grouped with parentheses. Supported fields are
+ * id, name, game, character, series, type and title. This syntax applies only
+ * to queries with at least one field term, anything else is plain text. Facet names are resolved
+ * to their id bits once, so every term costs a mask and a hash lookup per amiibo.
+ */
+public class AmiiboQuery {
+
+    public interface Predicate {
+        boolean matches(long amiiboId);
+    }
+
+    public static final Predicate MATCH_ALL = amiiboId -> true;
+
+    private final AmiiboManager amiiboManager;
+    private final GamesManager gamesManager;
+    private final ArrayList<String> tokens = new ArrayList<>();
+    private int position;
+
+    private AmiiboQuery(AmiiboManager amiiboManager, GamesManager gamesManager) {
+        this.amiiboManager = amiiboManager;
+        this.gamesManager = gamesManager;
+    }
+
+    // A known field term is the marker that switches a query to boolean syntax
+    private static final Pattern FIELD_TERM = Pattern.compile(
+            "(^|[\\s(\\-])(id|name|game|gameseries|character|char|series"
+                    + "|amiiboseries|type|title|games):", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Whether the query contains a field term, so names such as
+     * {@code Pac-Man} or {@code Mario (Gold Edition)} stay plain-text searches
+     */
+    public static boolean isStructured(String query) {
+        return null != query && FIELD_TERM.matcher(query).find();
+    }
+
+    /**
+     * Parses the query once and returns the compiled predicate
+     */
+    public static Predicate compile(
+            AmiiboManager amiiboManager, GamesManager gamesManager, String query
+    ) throws ParseException {
+        AmiiboQuery compiler = new AmiiboQuery(amiiboManager, gamesManager);
+        if (null == query || query.trim().isEmpty()) return MATCH_ALL;
+        if (!isStructured(query)) return compiler.compileText(query.trim());
+        compiler.tokenize(query);
+        if (compiler.tokens.isEmpty()) return MATCH_ALL;
+        Predicate predicate = compiler.parseOr();
+        if (compiler.position < compiler.tokens.size())
+            throw new ParseException(query, compiler.position);
+        return predicate;
+    }
+
+    /**
+     * Compiles the query as a single plain-text search, ignoring any syntax
+     */
+    public static Predicate compileText(AmiiboManager amiiboManager, String query) {
+        if (null == query || query.trim().isEmpty()) return MATCH_ALL;
+        return new AmiiboQuery(amiiboManager, null).compileText(query.trim());
+    }
+
+    /**
+     * Compiles a dropdown filter, which ignores amiibo without a known facet
+     */
+    public static Predicate compileFilter(
+            AmiiboManager amiiboManager, GamesManager gamesManager, Field field, String name
+    ) {
+        if (null == name || name.isEmpty()) return MATCH_ALL;
+        if (field == Field.TITLE) {
+            if (null == gamesManager) return MATCH_ALL;
+            final HashSet<Long> amiiboIds = new HashSet<>(
+                    gamesManager.getGameAmiiboIds(amiiboManager, name));
+            return amiiboIds::contains;
+        }
+        Map<Long, String> facets = getFacets(amiiboManager, field);
+        HashSet<Long> values = new HashSet<>();
+        for (Map.Entry<Long, String> entry : facets.entrySet()) {
+            if (entry.getValue().equals(name)) values.add(entry.getKey());
+        }
+        final long mask = field.mask;
+        final Map<Long, String> known = facets;
+        return amiiboId -> {
+            long value = amiiboId & mask;
+            return values.contains(value) || !known.containsKey(value);
+        };
+    }
+
+    public enum Field {
+        ID(-1L),
+        NAME(0),
+        GAME(GameSeries.MASK),
+        CHARACTER(Character.MASK),
+        SERIES(AmiiboSeries.MASK),
+        TYPE(AmiiboType.MASK),
+        TITLE(0);
+
+        final long mask;
+
+        Field(long mask) {
+            this.mask = mask;
+        }
+
+        static Field fromName(String name) {
+            switch (name) {
+                case "id":
+                    return ID;
+                case "name":
+                    return NAME;
+                case "game":
+                case "gameseries":
+                    return GAME;
+                case "character":
+                case "char":
+                    return CHARACTER;
+                case "series":
+                case "amiiboseries":
+                    return SERIES;
+                case "type":
+                    return TYPE;
+                case "title":
+                case "games":
+                    return TITLE;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private static Map<Long, String> getFacets(AmiiboManager amiiboManager, Field field) {
+        HashMap<Long, String> facets = new HashMap<>();
+        switch (field) {
+            case GAME:
+                for (GameSeries gameSeries : amiiboManager.gameSeries.values())
+                    facets.put(gameSeries.id, gameSeries.name);
+                break;
+            case CHARACTER:
+                for (Character character : amiiboManager.characters.values())
+                    facets.put(character.id, character.name);
+                break;
+            case SERIES:
+                for (AmiiboSeries amiiboSeries : amiiboManager.amiiboSeries.values())
+                    facets.put(amiiboSeries.id, amiiboSeries.name);
+                break;
+            case TYPE:
+                for (AmiiboType amiiboType : amiiboManager.amiiboTypes.values())
+                    facets.put(amiiboType.id, amiiboType.name);
+                break;
+        }
+        return facets;
+    }
+
+    private void tokenize(String query) throws ParseException {
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            if (java.lang.Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')' || c == '|') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '-' && (i == 0 || query.charAt(i - 1) == '('
+                    || java.lang.Character.isWhitespace(query.charAt(i - 1)))) {
+                tokens.add("-");
+                i++;
+            } else {
+                StringBuilder token = new StringBuilder();
+                while (i < length) {
+                    c = query.charAt(i);
+                    if (c == '"') {
+                        int end = query.indexOf('"', i + 1);
+                        if (end < 0) throw new ParseException(query, i);
+                        // Quoted text is marked so it is never read as an operator
+                        token.append('\u0000').append(query, i + 1, end);
+                        i = end + 1;
+                    } else if (java.lang.Character.isWhitespace(c)
+                            || c == '(' || c == ')' || c == '|') {
+                        break;
+                    } else {
+                        token.append(c);
+                        i++;
+                    }
+                }
+                tokens.add(token.toString());
+            }
+        }
+    }
+
+    private String peek() {
+        return position < tokens.size() ? tokens.get(position) : null;
+    }
+
+    private static boolean isOr(String token) {
+        return "|".equals(token) || "or".equalsIgnoreCase(token);
+    }
+
+    private static boolean isAnd(String token) {
+        return "&".equals(token) || "and".equalsIgnoreCase(token);
+    }
+
+    private static boolean isNot(String token) {
+        return "-".equals(token) || "not".equalsIgnoreCase(token) || "!".equals(token);
+    }
+
+    private Predicate parseOr() throws ParseException {
+        Predicate left = parseAnd();
+        while (isOr(peek())) {
+            position++;
+            final Predicate first = left;
+            final Predicate second = parseAnd();
+            left = amiiboId -> first.matches(amiiboId) || second.matches(amiiboId);
+        }
+        return left;
+    }
+
+    private Predicate parseAnd() throws ParseException {
+        Predicate left = parseUnary();
+        while (true) {
+            String token = peek();
+            if (null == token || isOr(token) || ")".equals(token)) break;
+            if (isAnd(token)) position++;
+            final Predicate first = left;
+            final Predicate second = parseUnary();
+            left = amiiboId -> first.matches(amiiboId) && second.matches(amiiboId);
+        }
+        return left;
+    }
+
+    private Predicate parseUnary() throws ParseException {
+        String token = peek();
+        if (null == token) throw new ParseException(String.join(" ", tokens), position);
+        if (isNot(token)) {
+            position++;
+            final Predicate predicate = parseUnary();
+            return amiiboId -> !predicate.matches(amiiboId);
+        }
+        if ("(".equals(token)) {
+            position++;
+            Predicate predicate = parseOr();
+            if (!")".equals(peek()))
+                throw new ParseException(String.join(" ", tokens), position);
+            position++;
+            return predicate;
+        }
+        if (")".equals(token) || isOr(token) || isAnd(token))
+            throw new ParseException(String.join(" ", tokens), position);
+        position++;
+        return compileTerm(token);
+    }
+
+    private Predicate compileTerm(String token) throws ParseException {
+        int separator = token.indexOf(':');
+        int quote = token.indexOf('\u0000');
+        if (separator > 0 && (quote < 0 || separator < quote)) {
+            Field field = Field.fromName(token.substring(0, separator)
+                    .toLowerCase(Locale.ROOT));
+            String value = token.substring(separator + 1).replace("\u0000", "");
+            if (null == field) throw new ParseException(token, 0);
+            if (value.isEmpty()) throw new ParseException(token, separator);
+            return compileField(field, value.toLowerCase(Locale.ROOT));
+        }
+        return compileText(token.replace("\u0000", ""));
+    }
+
+    private Predicate compileField(Field field, String value) throws ParseException {
+        switch (field) {
+            case ID:
+                return compileId(value);
+            case NAME:
+                return compileName(value);
+            case TITLE:
+                return compileTitle(value);
+            default:
+                return compileFacet(field, value);
+        }
+    }
+
+    private static boolean matchesName(String name, String value) {
+        if (null == name) return false;
+        String text = name.toLowerCase(Locale.ROOT);
+        if (value.endsWith("*")) return text.startsWith(value.substring(0, value.length() - 1));
+        return text.contains(value);
+    }
+
+    private Predicate compileFacet(Field field, String value) {
+        Map<Long, String> facets = getFacets(amiiboManager, field);
+        HashSet<Long> exact = new HashSet<>();
+        HashSet<Long> partial = new HashSet<>();
+        for (Map.Entry<Long, String> entry : facets.entrySet()) {
+            if (entry.getValue().equalsIgnoreCase(value))
+                exact.add(entry.getKey());
+            else if (matchesName(entry.getValue(), value))
+                partial.add(entry.getKey());
+        }
+        final HashSet<Long> values = exact.isEmpty() ? partial : exact;
+        final long mask = field.mask;
+        if (values.isEmpty()) return amiiboId -> false;
+        if (values.size() == 1) {
+            final long single = values.iterator().next();
+            return amiiboId -> (amiiboId & mask) == single;
+        }
+        return amiiboId -> values.contains(amiiboId & mask);
+    }
+
+    private Predicate compileName(String value) {
+        final HashSet<Long> amiiboIds = new HashSet<>();
+        for (Amiibo amiibo : amiiboManager.amiibos.values()) {
+            if (matchesName(amiibo.name, value)) amiiboIds.add(amiibo.id);
+        }
+        return amiiboIds::contains;
+    }
+
+    private Predicate compileTitle(String value) {
+        if (null == gamesManager) return amiiboId -> false;
+        final HashSet<Long> amiiboIds = new HashSet<>();
+        for (GameTitles title : gamesManager.getGameTitles()) {
+            if (matchesName(title.name, value))
+                amiiboIds.addAll(gamesManager.getGameAmiiboIds(amiiboManager, title.name));
+        }
+        return amiiboIds::contains;
+    }
+
+    /**
+     * Hex id prefix where ? matches any nibble and a trailing * is optional
+     */
+    private static Predicate compileId(String value) throws ParseException {
+        String pattern = value.startsWith("0x") ? value.substring(2) : value;
+        if (pattern.endsWith("*")) pattern = pattern.substring(0, pattern.length() - 1);
+        if (pattern.length() > 16) throw new ParseException(value, 16);
+        long mask = 0;
+        long bits = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            int shift = 60 - i * 4;
+            if (c == '?') continue;
+            int nibble = java.lang.Character.digit(c, 16);
+            if (nibble < 0) throw new ParseException(value, i);
+            mask |= 0xFL << shift;
+            bits |= (long) nibble << shift;
+        }
+        final long idMask = mask;
+        final long idBits = bits;
+        return amiiboId -> (amiiboId & idMask) == idBits;
+    }
+
+    /**
+     * Plain text keeps the original search semantics: id prefix or any name containing it
+     */
+    private Predicate compileText(String text) {
+        final String value = text.toLowerCase(Locale.ROOT);
+        Predicate idPrefix = null;
+        try {
+            if (!value.isEmpty() && value.length() <= 16 && !value.startsWith("0x"))
+                idPrefix = compileId(value + "*");
+        } catch (ParseException ignored) { }
+        final HashSet<Long> amiiboIds = new HashSet<>();
+        for (Amiibo amiibo : amiiboManager.amiibos.values()) {
+            if (null != amiibo.name && amiibo.name.toLowerCase().contains(value))
+                amiiboIds.add(amiibo.id);
+        }
+        Field[] fields = {Field.GAME, Field.CHARACTER, Field.SERIES, Field.TYPE};
+        final long[] masks = new long[fields.length];
+        final ArrayList<HashSet<Long>> facetValues = new ArrayList<>();
+        for (Field field : fields) {
+            HashSet<Long> values = new HashSet<>();
+            for (Map.Entry<Long, String> entry : getFacets(amiiboManager, field).entrySet()) {
+                if (entry.getValue().toLowerCase().contains(value)) values.add(entry.getKey());
+            }
+            if (!values.isEmpty()) {
+                masks[facetValues.size()] = field.mask;
+                facetValues.add(values);
+            }
+        }
+        final Predicate idMatch = idPrefix;
+        final int facetCount = facetValues.size();
+        return amiiboId -> {
+            if (null != idMatch && idMatch.matches(amiiboId)) return true;
+            if (amiiboIds.contains(amiiboId)) return true;
+            for (int i = 0; i < facetCount; i++) {
+                if (facetValues.get(i).contains(amiiboId & masks[i])) return true;
+            }
+            return false;
+        };
+    }
+}
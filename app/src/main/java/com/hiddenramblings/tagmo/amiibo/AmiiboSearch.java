@@ -0,0 +1,242 @@
+package com.hiddenramblings.tagmo.amiibo;
+
+import com.hiddenramblings.tagmo.nfctech.TagUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Typo-tolerant search over the amiibo database with ranked results
+ */
+public class AmiiboSearch {
+
+    public static final long QUERY_BUDGET_MS = 60;
+
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+    // Items found only by the fallback rank after every database match
+    private static final int FALLBACK_MATCH = NO_MATCH - 1;
+
+    // Field weights used to break ties between equal edit distances
+    private static final int WEIGHT_ID = 0;
+    private static final int WEIGHT_NAME = 1;
+    private static final int WEIGHT_CHARACTER = 2;
+    private static final int WEIGHT_GAME_SERIES = 3;
+    private static final int WEIGHT_AMIIBO_SERIES = 4;
+    private static final int WEIGHT_AMIIBO_TYPE = 5;
+    private static final int WEIGHT_RANGE = 8;
+
+    private final AmiiboManager manager;
+    private final HashMap<Long, Term[]> index = new HashMap<>();
+
+    private static class Term {
+        final char[] text;
+        final int weight;
+
+        Term(String text, int weight) {
+            this.text = text.toCharArray();
+            this.weight = weight;
+        }
+    }
+
+    public interface IdProvider<T> {
+        long getId(T item);
+    }
+
+    public interface Matcher<T> {
+        boolean matches(T item);
+    }
+
+    /**
+     * Marker for results already ordered by relevance, which must not be re-sorted
+     */
+    public static class RankedList<T> extends ArrayList<T> {
+        RankedList(int capacity) {
+            super(capacity);
+        }
+    }
+
+    public AmiiboSearch(AmiiboManager manager) {
+        this.manager = manager;
+        for (Amiibo amiibo : manager.amiibos.values()) {
+            index.put(amiibo.id, buildTerms(amiibo));
+        }
+    }
+
+    public boolean isIndexOf(AmiiboManager amiiboManager) {
+        return this.manager == amiiboManager;
+    }
+
+    private static void addTerms(ArrayList<Term> terms, String value, int weight) {
+        if (null == value || value.isEmpty()) return;
+        String text = value.toLowerCase(Locale.ROOT);
+        terms.add(new Term(text, weight));
+        for (String word : text.split("[\\s\\-_.:/()']+")) {
+            if (word.length() > 1 && !word.equals(text)) terms.add(new Term(word, weight));
+        }
+    }
+
+    private static Term[] buildTerms(Amiibo amiibo) {
+        ArrayList<Term> terms = new ArrayList<>();
+        addTerms(terms, TagUtils.amiiboIdToHex(amiibo.id), WEIGHT_ID);
+        addTerms(terms, amiibo.name, WEIGHT_NAME);
+        Character character = amiibo.getCharacter();
+        if (null != character) addTerms(terms, character.name, WEIGHT_CHARACTER);
+        GameSeries gameSeries = amiibo.getGameSeries();
+        if (null != gameSeries) addTerms(terms, gameSeries.name, WEIGHT_GAME_SERIES);
+        AmiiboSeries amiiboSeries = amiibo.getAmiiboSeries();
+        if (null != amiiboSeries) addTerms(terms, amiiboSeries.name, WEIGHT_AMIIBO_SERIES);
+        AmiiboType amiiboType = amiibo.getAmiiboType();
+        if (null != amiiboType) addTerms(terms, amiiboType.name, WEIGHT_AMIIBO_TYPE);
+        return terms.toArray(new Term[0]);
+    }
+
+    private Term[] getTerms(long amiiboId) {
+        Term[] terms = index.get(amiiboId);
+        if (null == terms) {
+            terms = buildTerms(new Amiibo(manager, amiiboId, null, null));
+            index.put(amiiboId, terms);
+        }
+        return terms;
+    }
+
+    private static int getMaxEdits(int length) {
+        if (length <= 2) return 0;
+        if (length <= 5) return 1;
+        return 2;
+    }
+
+    /**
+     * Optimal string alignment distance between the token and the closest
+     * prefix of the term, abandoned as soon as it must exceed maxEdits
+     */
+    private static int prefixDistance(char[] token, char[] term, int maxEdits) {
+        int m = token.length;
+        int n = Math.min(term.length, m + maxEdits);
+        if (n < m - maxEdits) return NO_MATCH;
+        int[] previous2 = new int[n + 1];
+        int[] previous = new int[n + 1];
+        int[] current = new int[n + 1];
+        for (int j = 0; j <= n; j++) previous[j] = j;
+        for (int i = 1; i <= m; i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= n; j++) {
+                int cost = token[i - 1] == term[j - 1] ? 0 : 1;
+                int value = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1),
+                        previous[j - 1] + cost);
+                if (i > 1 && j > 1 && token[i - 1] == term[j - 2]
+                        && token[i - 2] == term[j - 1])
+                    value = Math.min(value, previous2[j - 2] + 1);
+                current[j] = value;
+                if (value < rowMin) rowMin = value;
+            }
+            if (rowMin > maxEdits) return NO_MATCH;
+            int[] swap = previous2;
+            previous2 = previous;
+            previous = current;
+            current = swap;
+        }
+        int best = NO_MATCH;
+        for (int j = Math.max(0, m - maxEdits); j <= n; j++) {
+            if (previous[j] < best) best = previous[j];
+        }
+        return best <= maxEdits ? best : NO_MATCH;
+    }
+
+    private static boolean contains(char[] term, char[] token) {
+        outer:
+        for (int i = 0, last = term.length - token.length; i <= last; i++) {
+            for (int j = 0; j < token.length; j++) {
+                if (term[i + j] != token[j]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static int scoreToken(Term[] terms, char[] token) {
+        int maxEdits = getMaxEdits(token.length);
+        int best = NO_MATCH;
+        for (Term term : terms) {
+            int score;
+            if (contains(term.text, token)) {
+                score = term.weight;
+            } else if (maxEdits > 0) {
+                int distance = prefixDistance(token, term.text, maxEdits);
+                if (distance == NO_MATCH) continue;
+                score = distance * WEIGHT_RANGE + term.weight;
+            } else {
+                continue;
+            }
+            if (score < best) best = score;
+        }
+        return best;
+    }
+
+    private static char[][] tokenize(String query) {
+        String[] words = query.trim().toLowerCase(Locale.ROOT).split("\\s+");
+        char[][] tokens = new char[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            tokens[i] = words[i].toCharArray();
+        }
+        return tokens;
+    }
+
+    private int score(long amiiboId, char[][] tokens) {
+        Term[] terms = getTerms(amiiboId);
+        int total = 0;
+        for (char[] token : tokens) {
+            int score = scoreToken(terms, token);
+            if (score == NO_MATCH) return NO_MATCH;
+            total += score;
+        }
+        return total;
+    }
+
+    /**
+     * Returns every item accepted by the filter that matches each query token
+     * within a bounded edit distance, best matches first. Items the database
+     * terms miss but the fallback accepts, such as by file name, follow in
+     * their original order. Returns null if the time budget, which includes
+     * the filter, expired so the caller can fall back to exact matching.
+     *
+     * @param filter   Items to consider, or null for all of them
+     * @param fallback Items to keep when no database term matches, or null
+     */
+    public synchronized <T> RankedList<T> search(
+            Collection<T> items, IdProvider<T> provider, Matcher<T> filter,
+            Matcher<T> fallback, String query, long budgetMs
+    ) {
+        long deadline = System.nanoTime() + budgetMs * 1000000L;
+        char[][] tokens = tokenize(query);
+        HashMap<Long, Integer> scores = new HashMap<>();
+        final ArrayList<long[]> matches = new ArrayList<>();
+        ArrayList<T> source = new ArrayList<>(items);
+        for (int i = 0, size = source.size(); i < size; i++) {
+            if (System.nanoTime() > deadline || Thread.currentThread().isInterrupted())
+                return null;
+            T item = source.get(i);
+            if (null != filter && !filter.matches(item)) continue;
+            long amiiboId = provider.getId(item);
+            Integer score = scores.get(amiiboId);
+            if (null == score) {
+                score = score(amiiboId, tokens);
+                scores.put(amiiboId, score);
+            }
+            if (score != NO_MATCH)
+                matches.add(new long[]{score, i});
+            else if (null != fallback && fallback.matches(item))
+                matches.add(new long[]{FALLBACK_MATCH, i});
+        }
+        Collections.sort(matches, (match1, match2) -> match1[0] != match2[0]
+                ? Long.compare(match1[0], match2[0]) : Long.compare(match1[1], match2[1]));
+        RankedList<T> results = new RankedList<>(matches.size());
+        for (long[] match : matches) {
+            results.add(source.get((int) match[1]));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,93 @@
+package com.hiddenramblings.tagmo.amiibo;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Running collection totals, updated per file instead of rescanning the library
+ */
+public class AmiiboStats {
+
+    private AmiiboManager amiiboManager;
+    private final HashMap<Long, Integer> fileCounts = new HashMap<>();
+    private int fileCount = 0;
+    private int ownedCount = 0;
+
+    private boolean isDatabaseAmiibo(long amiiboId) {
+        return null != amiiboManager && amiiboManager.amiibos.containsKey(amiiboId);
+    }
+
+    public void setAmiiboManager(AmiiboManager amiiboManager) {
+        if (this.amiiboManager == amiiboManager) return;
+        this.amiiboManager = amiiboManager;
+        ownedCount = 0;
+        if (null == amiiboManager) return;
+        for (Long amiiboId : fileCounts.keySet()) {
+            if (isDatabaseAmiibo(amiiboId)) ownedCount += 1;
+        }
+    }
+
+    public void setAmiiboFiles(Collection<AmiiboFile> amiiboFiles) {
+        fileCounts.clear();
+        fileCount = 0;
+        ownedCount = 0;
+        if (null == amiiboFiles) return;
+        for (AmiiboFile amiiboFile : amiiboFiles) {
+            addAmiiboFile(amiiboFile);
+        }
+    }
+
+    public void addAmiiboFile(AmiiboFile amiiboFile) {
+        long amiiboId = amiiboFile.getId();
+        fileCount += 1;
+        Integer count = fileCounts.get(amiiboId);
+        if (null == count) {
+            fileCounts.put(amiiboId, 1);
+            if (isDatabaseAmiibo(amiiboId)) ownedCount += 1;
+        } else {
+            fileCounts.put(amiiboId, count + 1);
+        }
+    }
+
+    public void removeAmiiboFile(AmiiboFile amiiboFile) {
+        long amiiboId = amiiboFile.getId();
+        Integer count = fileCounts.get(amiiboId);
+        if (null == count) return;
+        fileCount -= 1;
+        if (count > 1) {
+            fileCounts.put(amiiboId, count - 1);
+        } else {
+            fileCounts.remove(amiiboId);
+            if (isDatabaseAmiibo(amiiboId)) ownedCount -= 1;
+        }
+    }
+
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    public int getOwnedCount() {
+        return ownedCount;
+    }
+
+    public int getTotalCount() {
+        return null != amiiboManager ? amiiboManager.amiibos.size() : 0;
+    }
+
+    /**
+     * Number of distinct database amiibo among a subset of files, counted
+     * once per filter pass while the subset is built
+     */
+    public static int getOwnedCount(
+            Collection<AmiiboFile> amiiboFiles, AmiiboManager amiiboManager
+    ) {
+        if (null == amiiboFiles || null == amiiboManager) return 0;
+        HashSet<Long> owned = new HashSet<>();
+        for (AmiiboFile amiiboFile : amiiboFiles) {
+            if (amiiboManager.amiibos.containsKey(amiiboFile.getId()))
+                owned.add(amiiboFile.getId());
+        }
+        return owned.size();
+    }
+}
@@ -106,7 +106,9 @@ import com.hiddenramblings.tagmo.TagMo;
 import com.hiddenramblings.tagmo.amiibo.Amiibo;
 import com.hiddenramblings.tagmo.amiibo.AmiiboFile;
 import com.hiddenramblings.tagmo.amiibo.AmiiboManager;
+import com.hiddenramblings.tagmo.amiibo.AmiiboQuery;
 import com.hiddenramblings.tagmo.amiibo.AmiiboSeries;
+import com.hiddenramblings.tagmo.amiibo.AmiiboStats;
 import com.hiddenramblings.tagmo.amiibo.AmiiboType;
 import com.hiddenramblings.tagmo.amiibo.Character;
 import com.hiddenramblings.tagmo.amiibo.GameSeries;
@@ -123,10 +125,12 @@ import com.hiddenramblings.tagmo.eightbit.material.IconifiedSnackbar;
 import com.hiddenramblings.tagmo.eightbit.os.Storage;
 import com.hiddenramblings.tagmo.eightbit.view.AnimatedLinearLayout;
 import com.hiddenramblings.tagmo.hexcode.HexCodeViewer;
+import com.hiddenramblings.tagmo.nfctech.EliteBankCache;
 import com.hiddenramblings.tagmo.nfctech.NTAG215;
 import com.hiddenramblings.tagmo.nfctech.TagReader;
 import com.hiddenramblings.tagmo.nfctech.TagUtils;
 import com.hiddenramblings.tagmo.nfctech.TagWriter;
+import com.hiddenramblings.tagmo.nfctech.TransceiveTuning;
 import com.hiddenramblings.tagmo.settings.BrowserSettings;
 import com.hiddenramblings.tagmo.settings.BrowserSettings.BrowserSettingsListener;
 import com.hiddenramblings.tagmo.settings.BrowserSettings.FILTER;
@@ -173,6 +177,7 @@ public class BrowserActivity extends AppCompatActivity implements
     private AmiiboFile clickedAmiibo = null;
 
     private BrowserSettings settings;
+    private final AmiiboStats amiiboStats = new AmiiboStats();
     private boolean ignoreTagId;
     private CheckUpdatesTask updates;
     private String updateUrl;
@@ -310,8 +315,12 @@ public class BrowserActivity extends AppCompatActivity implements
             public void onPageSelected(int position) {
                 super.onPageSelected(position);
                 if (position != 0) {
-                    BrowserAdapter.resetVisible();
-                    FoomiiboAdapter.resetVisible();
+                    RecyclerView.Adapter<?> amiibos = fragmentBrowser.getAmiibosView().getAdapter();
+                    if (amiibos instanceof BrowserAdapter)
+                        ((BrowserAdapter) amiibos).resetVisible();
+                    RecyclerView.Adapter<?> foomiibo = fragmentBrowser.getFoomiiboView().getAdapter();
+                    if (foomiibo instanceof FoomiiboAdapter)
+                        ((FoomiiboAdapter) foomiibo).resetVisible();
                 }
                 switch (position) {
                     case 1:
@@ -721,6 +730,16 @@ public class BrowserActivity extends AppCompatActivity implements
         });
     }
 
+    private void onTagStationClicked() {
+        BrowserAdapter adapter = (BrowserAdapter) fragmentBrowser.getAmiibosView().getAdapter();
+        if (null == adapter || adapter.getItemCount() == 0) return;
+        ArrayList<AmiiboFile> amiiboList = adapter.getFilteredList();
+        Intent station = new Intent(this, NfcActivity.class);
+        station.setAction(NFCIntent.ACTION_WRITE_TAG_BATCH);
+        station.putExtra(NFCIntent.EXTRA_AMIIBO_FILES, amiiboList);
+        onUpdateTagResult.launch(station);
+    }
+
     private void onCaptureLogcatClicked() {
         if (updates.hasPendingUpdate()) {
             if (null != appUpdate) updates.downloadPlayUpdate(appUpdate);
@@ -808,8 +827,9 @@ public class BrowserActivity extends AppCompatActivity implements
         AmiiboManager amiiboManager = settings.getAmiiboManager();
         if (null == amiiboManager) return 0;
         Set<Long> items = new HashSet<>();
+        AmiiboQuery.Predicate predicate = settings.getCompiledQuery(queryText);
         for (Amiibo amiibo : amiiboManager.amiibos.values()) {
-            if (settings.amiiboContainsQuery(amiibo, queryText))
+            if (settings.amiiboContainsQuery(amiibo, queryText, predicate))
                 items.add(amiibo.id);
         }
         return items.size();
@@ -1588,6 +1608,8 @@ public class BrowserActivity extends AppCompatActivity implements
         } else if (item.getItemId() == R.id.hide_downloads) {
             this.settings.setHideDownloads(!this.settings.isHidingDownloads());
             this.settings.notifyChanges();
+        } else if (item.getItemId() == R.id.tag_station) {
+            onTagStationClicked();
         } else if (item.getItemId() == R.id.connect_joy_con
                 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
             onShowJoyConFragment();
@@ -1829,6 +1851,14 @@ public class BrowserActivity extends AppCompatActivity implements
             BrowserSettings newBrowserSettings,
             BrowserSettings oldBrowserSettings) {
         if (newBrowserSettings == null || oldBrowserSettings == null) return;
+        if (!BrowserSettings.equals(newBrowserSettings.getAmiiboManager(),
+                oldBrowserSettings.getAmiiboManager())) {
+            amiiboStats.setAmiiboManager(newBrowserSettings.getAmiiboManager());
+        }
+        if (!BrowserSettings.equals(newBrowserSettings.getAmiiboFiles(),
+                oldBrowserSettings.getAmiiboFiles())) {
+            amiiboStats.setAmiiboFiles(newBrowserSettings.getAmiiboFiles());
+        }
         boolean folderChanged = !BrowserSettings.equals(
                 newBrowserSettings.getBrowserRootFolder(),
                 oldBrowserSettings.getBrowserRootFolder()
@@ -2096,6 +2126,7 @@ public class BrowserActivity extends AppCompatActivity implements
                     .setPositiveButton(R.string.delete, (dialog, which) -> {
                         amiiboContainer.setVisibility(View.GONE);
                         amiiboFile.getDocUri().delete();
+                        amiiboStats.removeAmiiboFile(amiiboFile);
                         new IconifiedSnackbar(this, mainLayout).buildSnackbar(
                                 getString(R.string.delete_file, relativeDocument),
                                 Snackbar.LENGTH_SHORT
@@ -2119,6 +2150,7 @@ public class BrowserActivity extends AppCompatActivity implements
                         amiiboContainer.setVisibility(View.GONE);
                         //noinspection ResultOfMethodCallIgnored
                         amiiboFile.getFilePath().delete();
+                        amiiboStats.removeAmiiboFile(amiiboFile);
                         new IconifiedSnackbar(this, mainLayout).buildSnackbar(
                                 getString(R.string.delete_file, relativeFile),
                                 Snackbar.LENGTH_SHORT
@@ -2417,50 +2449,31 @@ public class BrowserActivity extends AppCompatActivity implements
         }
     }
 
-    private int[] getAdapterStats(AmiiboManager amiiboManager) {
+    private int[] getAdapterStats() {
         BrowserAdapter adapter = (BrowserAdapter) fragmentBrowser.getAmiibosView().getAdapter();
         if (null == adapter) return new int[]{0, 0};
-        int size = adapter.getItemCount();
-        int count = 0;
-        for (Amiibo amiibo : amiiboManager.amiibos.values()) {
-            for (int x = 0; x < size; x++) {
-                if (amiibo.id == adapter.getItemId(x)) {
-                    count += 1;
-                    break;
-                }
-            }
-        }
-        return new int[]{size, count};
+        return new int[]{adapter.getItemCount(), adapter.getOwnedCount()};
     }
 
     private void setAmiiboStats() {
         handler.removeCallbacksAndMessages(null);
         currentFolderView.post(() -> {
-            int size = settings.getAmiiboFiles().size();
+            int size = amiiboStats.getFileCount();
             if (size <= 0) return;
             currentFolderView.setGravity(Gravity.CENTER);
             AmiiboManager amiiboManager = settings.getAmiiboManager();
             if (null != amiiboManager) {
-                int count = 0;
                 if (!settings.getQuery().isEmpty()) {
-                    int[] stats = getAdapterStats(amiiboManager);
+                    int[] stats = getAdapterStats();
                     currentFolderView.setText(getString(R.string.amiibo_collected,
                             stats[0], stats[1], getQueryCount(settings.getQuery())));
                 } else if (!settings.isFilterEmpty()) {
-                    int[] stats = getAdapterStats(amiiboManager);
+                    int[] stats = getAdapterStats();
                     currentFolderView.setText(getString(R.string.amiibo_collected,
                             stats[0], stats[1], filteredCount));
                 } else {
-                    for (Amiibo amiibo : amiiboManager.amiibos.values()) {
-                        for (AmiiboFile amiiboFile : settings.getAmiiboFiles()) {
-                            if (amiibo.id == amiiboFile.getId()) {
-                                count += 1;
-                                break;
-                            }
-                        }
-                    }
                     currentFolderView.setText(getString(R.string.amiibo_collected,
-                            size, count, amiiboManager.amiibos.size()));
+                            size, amiiboStats.getOwnedCount(), amiiboStats.getTotalCount()));
                 }
             } else {
                 currentFolderView.setText(getString(R.string.files_displayed, size));
@@ -3126,6 +3139,14 @@ public class BrowserActivity extends AppCompatActivity implements
         prefs.refreshCount().put(loadCount <= 8 ? loadCount + 1 : 0);
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Keep what tag scans learned about the reader and Elite banks
+        TransceiveTuning.commitAll();
+        EliteBankCache.commitAll();
+    }
+
     @Override
     protected void onRestart() {
         setLoadCompleted();
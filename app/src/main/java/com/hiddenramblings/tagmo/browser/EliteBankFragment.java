@@ -57,6 +57,7 @@ import com.hiddenramblings.tagmo.eightbit.io.Debug;
 import com.hiddenramblings.tagmo.eightbit.material.IconifiedSnackbar;
 import com.hiddenramblings.tagmo.eightbit.os.Storage;
 import com.hiddenramblings.tagmo.hexcode.HexCodeViewer;
+import com.hiddenramblings.tagmo.nfctech.EliteBankCache;
 import com.hiddenramblings.tagmo.nfctech.TagUtils;
 import com.hiddenramblings.tagmo.settings.BrowserSettings;
 import com.hiddenramblings.tagmo.settings.Preferences_;
@@ -891,33 +892,63 @@ public class EliteBankFragment extends Fragment implements
                     prefs.eliteBankCount().get());
             int active_bank = requireArguments().getInt(NFCIntent.EXTRA_ACTIVE_BANK,
                     prefs.eliteActiveBank().get());
+            showEliteBanks(requireArguments().getString(NFCIntent.EXTRA_SIGNATURE),
+                    bank_count, active_bank,
+                    requireArguments().getStringArrayList(NFCIntent.EXTRA_AMIIBO_LIST));
+            setArguments(null);
+        } catch (Exception ignored) {
+            if (amiibos.isEmpty() && !onCacheLoaded()) setBottomSheetSecure(true);
+        }
+    }
 
-            setBottomSheetSecure(false);
-
+    /**
+     * Lists the cached titles of the last scanned device. The bank actions
+     * stay hidden until a scan confirms which device is present.
+     */
+    private boolean onCacheLoaded() {
+        String signature = prefs.settings_elite_signature().get();
+        EliteBankCache cache = EliteBankCache.get(signature);
+        if (null == cache) return false;
+        ArrayList<String> titles = cache.getTitles();
+        if (titles.isEmpty()) return false;
+        try {
             ((TextView) rootLayout.findViewById(R.id.hardware_info)).setText(getString(
-                    R.string.elite_signature, requireArguments().getString(NFCIntent.EXTRA_SIGNATURE)
+                    R.string.elite_signature_cached, signature
             ));
-            eliteBankCount.setValue(bank_count);
+            eliteBankCount.setValue(titles.size());
+            updateEliteAdapter(titles);
+            setBottomSheetSecure(true);
+            return true;
+        } catch (Exception e) {
+            Debug.Warn(e);
+            return false;
+        }
+    }
 
-            updateEliteAdapter(requireArguments().getStringArrayList(NFCIntent.EXTRA_AMIIBO_LIST));
-            bankStats.setText(getString(R.string.bank_stats,
-                    getValueForPosition(eliteBankCount, active_bank), bank_count));
-            writeOpenBanks.setText(getString(R.string.write_open_banks, bank_count));
-            eraseOpenBanks.setText(getString(R.string.erase_open_banks, bank_count));
+    private void showEliteBanks(
+            String signature, int bank_count, int active_bank, ArrayList<String> titles
+    ) {
+        setBottomSheetSecure(false);
 
-            if (null == amiibos.get(active_bank)) {
-                onBottomSheetChanged(true, false);
-            } else {
-                updateAmiiboView(amiiboCard, null, amiibos.get(active_bank).id, active_bank);
-                updateAmiiboView(amiiboTile, null, amiibos.get(active_bank).id, active_bank);
-                onBottomSheetChanged(true, true);
-                new Handler(Looper.getMainLooper()).postDelayed(() -> bottomSheetBehavior
-                        .setState(BottomSheetBehavior.STATE_EXPANDED), TagMo.uiDelay);
-            }
+        ((TextView) rootLayout.findViewById(R.id.hardware_info)).setText(getString(
+                R.string.elite_signature, signature
+        ));
+        eliteBankCount.setValue(bank_count);
 
-            setArguments(null);
-        } catch (Exception ignored) {
-            if (amiibos.isEmpty()) setBottomSheetSecure(true);
+        updateEliteAdapter(titles);
+        bankStats.setText(getString(R.string.bank_stats,
+                getValueForPosition(eliteBankCount, active_bank), bank_count));
+        writeOpenBanks.setText(getString(R.string.write_open_banks, bank_count));
+        eraseOpenBanks.setText(getString(R.string.erase_open_banks, bank_count));
+
+        if (null == amiibos.get(active_bank)) {
+            onBottomSheetChanged(true, false);
+        } else {
+            updateAmiiboView(amiiboCard, null, amiibos.get(active_bank).id, active_bank);
+            updateAmiiboView(amiiboTile, null, amiibos.get(active_bank).id, active_bank);
+            onBottomSheetChanged(true, true);
+            new Handler(Looper.getMainLooper()).postDelayed(() -> bottomSheetBehavior
+                    .setState(BottomSheetBehavior.STATE_EXPANDED), TagMo.uiDelay);
         }
     }
 
@@ -150,6 +150,7 @@ public class FlaskSlotFragment extends Fragment implements
                                     .findViewById(R.id.hardware_info)).setText(profileFlask));
                             try {
                                 serviceFlask.setFlaskCharacteristicRX();
+                                serviceFlask.probeBinaryUpload();
                                 serviceFlask.getDeviceAmiibo();
                             } catch (UnsupportedOperationException uoe) {
                                 disconnectFlask();
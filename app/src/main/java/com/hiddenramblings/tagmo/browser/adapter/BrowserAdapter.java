@@ -27,6 +27,9 @@ import com.hiddenramblings.tagmo.amiibo.Amiibo;
 import com.hiddenramblings.tagmo.amiibo.AmiiboFile;
 import com.hiddenramblings.tagmo.amiibo.AmiiboFileComparator;
 import com.hiddenramblings.tagmo.amiibo.AmiiboManager;
+import com.hiddenramblings.tagmo.amiibo.AmiiboQuery;
+import com.hiddenramblings.tagmo.amiibo.AmiiboSearch;
+import com.hiddenramblings.tagmo.amiibo.AmiiboStats;
 import com.hiddenramblings.tagmo.eightbit.os.Storage;
 import com.hiddenramblings.tagmo.nfctech.TagUtils;
 import com.hiddenramblings.tagmo.settings.BrowserSettings;
@@ -37,6 +40,7 @@ import com.hiddenramblings.tagmo.widget.BoldSpannable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class BrowserAdapter
         extends RecyclerView.Adapter<BrowserAdapter.AmiiboViewHolder>
@@ -46,9 +50,12 @@ public class BrowserAdapter
     private final OnAmiiboClickListener listener;
     private ArrayList<AmiiboFile> data = new ArrayList<>();
     private ArrayList<AmiiboFile> filteredData;
+    private int ownedCount;
     private AmiiboFilter filter;
+    private final AtomicInteger filterGeneration = new AtomicInteger();
     boolean firstRun = true;
-    private static final ArrayList<String> amiiboPath = new ArrayList<>();
+    private final SelectionState<AmiiboFile, String> selection
+            = new SelectionState<>(BrowserAdapter::getIdentity);
 
     public BrowserAdapter(BrowserSettings settings, OnAmiiboClickListener listener) {
         this.settings = settings;
@@ -58,8 +65,19 @@ public class BrowserAdapter
         this.setHasStableIds(true);
     }
 
-    public static void resetVisible() {
-        amiiboPath.clear();
+    public void resetVisible() {
+        selection.collapseAll();
+    }
+
+    /**
+     * Document uri or absolute path, whichever the file was loaded from
+     */
+    static String getIdentity(AmiiboFile amiiboFile) {
+        if (null != amiiboFile.getDocUri())
+            return amiiboFile.getDocUri().getUri().toString();
+        if (null != amiiboFile.getFilePath())
+            return amiiboFile.getFilePath().getAbsolutePath();
+        return null;
     }
 
     @Override
@@ -78,6 +96,7 @@ public class BrowserAdapter
             this.data = new ArrayList<>();
             if (null != newBrowserSettings.getAmiiboFiles())
                 this.data.addAll(newBrowserSettings.getAmiiboFiles());
+            selection.retainAll(this.data);
             refresh = true;
         }
         if (!BrowserSettings.equals(newBrowserSettings.getAmiiboManager(),
@@ -109,6 +128,13 @@ public class BrowserAdapter
         return filteredData.get(i);
     }
 
+    /**
+     * Every file that matches the current filter, in display order
+     */
+    public ArrayList<AmiiboFile> getFilteredList() {
+        return null != filteredData ? new ArrayList<>(filteredData) : new ArrayList<>();
+    }
+
     private ArrayList<Integer> mSectionPositions;
 
     @Override
@@ -198,21 +224,10 @@ public class BrowserAdapter
 
     private void handleClickEvent(final AmiiboViewHolder holder) {
         if (null != holder.listener) {
-            String uri = null != holder.amiiboFile.getDocUri()
-                    ? holder.amiiboFile.getDocUri().getUri().toString() : null;
-            String path = null != holder.amiiboFile.getFilePath()
-                    ? holder.amiiboFile.getFilePath().getAbsolutePath() : null;
-
             if (settings.getAmiiboView() != VIEW.IMAGE.getValue()) {
-                if (amiiboPath.contains(uri) || amiiboPath.contains(path)) {
-                    if (null != uri) amiiboPath.remove(uri);
-                    if (null != path) amiiboPath.remove(path);
-                } else {
-                    if (null != uri) amiiboPath.add(uri);
-                    if (null != path) amiiboPath.add(path);
-                }
+                holder.expanded = selection.toggleExpanded(holder.amiiboFile);
             } else {
-                amiiboPath.clear();
+                selection.collapseAll();
             }
             holder.listener.onAmiiboClicked(holder.itemView, holder.amiiboFile);
         }
@@ -230,10 +245,13 @@ public class BrowserAdapter
                 }
             });
         }
-        holder.bind(getItem(holder.getBindingAdapterPosition()));
+        AmiiboFile item = getItem(holder.getBindingAdapterPosition());
+        holder.expanded = selection.isExpanded(item);
+        holder.bind(item);
     }
 
     public void refresh() {
+        filterGeneration.incrementAndGet();
         this.getFilter().filter(settings.getQuery());
     }
 
@@ -245,11 +263,32 @@ public class BrowserAdapter
         return this.filter;
     }
 
+    /**
+     * Owned database amiibo among the visible files, for the status bar
+     */
+    public int getOwnedCount() {
+        return ownedCount;
+    }
+
     class AmiiboFilter extends Filter {
+        class AmiiboResults extends FilterResults {
+            int ownedCount;
+        }
+
+        @SuppressWarnings("unchecked")
         @Override
         protected FilterResults performFiltering(CharSequence constraint) {
+            AmiiboResults filterResults = filterAmiiboFiles(constraint);
+            if (filterResults.values instanceof List) {
+                filterResults.ownedCount = AmiiboStats.getOwnedCount(
+                        (List<AmiiboFile>) filterResults.values, settings.getAmiiboManager());
+            }
+            return filterResults;
+        }
+
+        private AmiiboResults filterAmiiboFiles(CharSequence constraint) {
             String query = null != constraint ? constraint.toString() : "";
-            FilterResults filterResults = new FilterResults();
+            AmiiboResults filterResults = new AmiiboResults();
             if (query.trim().isEmpty()) {
                 filterResults.count = data.size();
                 filterResults.values = data;
@@ -265,20 +304,42 @@ public class BrowserAdapter
             String queryText = query.trim().toLowerCase();
             AmiiboManager amiiboManager = settings.getAmiiboManager();
             ArrayList<AmiiboFile> amiiboFiles = settings.getAmiiboFiles();
-            for (AmiiboFile amiiboFile : amiiboFiles) {
-                boolean add = false;
-                if (null != amiiboManager) {
-                    Amiibo amiibo = amiiboManager.amiibos.get(amiiboFile.getId());
-                    if (null == amiibo)
-                        amiibo = new Amiibo(amiiboManager, amiiboFile.getId(),
-                                null, null);
-                    add = settings.amiiboContainsQuery(amiibo, queryText);
+            if (!queryText.isEmpty() && null != amiiboManager
+                    && TagMo.getPrefs().enable_fuzzy_search().get()) {
+                ArrayList<AmiiboFile> rankedList = rankAmiiboFiles(amiiboFiles, queryText);
+                if (null != rankedList) {
+                    filterResults.count = rankedList.size();
+                    filterResults.values = rankedList;
+                    return filterResults;
                 }
+            }
+            final AmiiboQuery.Predicate predicate = settings.getCompiledQuery(queryText);
+            ParallelFileFilter.Matcher matcher = amiiboFile -> {
+                boolean add = false;
+                if (null != predicate) add = predicate.matches(amiiboFile.getId());
                 if (!add && null != amiiboFile.getDocUri())
                     add = pathContainsQuery(amiiboFile.getDocUri().toString(), queryText);
                 if (!add && null != amiiboFile.getFilePath())
                     add = pathContainsQuery(amiiboFile.getFilePath().getAbsolutePath(), queryText);
-                if (add)
+                return add;
+            };
+            if (ParallelFileFilter.isParallel(amiiboFiles.size())) {
+                final int generation = filterGeneration.get();
+                ParallelFileFilter.Cancellation cancellation = () ->
+                        generation != filterGeneration.get()
+                                || Thread.currentThread().isInterrupted();
+                ArrayList<AmiiboFile> matches = ParallelFileFilter.filter(
+                        amiiboFiles, matcher, cancellation);
+                ArrayList<AmiiboFile> sortedList = null != matches
+                        ? ParallelFileFilter.sort(matches, new AmiiboFileComparator(settings),
+                        amiiboManager, cancellation) : null;
+                // A newer request superseded this one, so nothing is published
+                filterResults.count = null != sortedList ? sortedList.size() : 0;
+                filterResults.values = sortedList;
+                return filterResults;
+            }
+            for (AmiiboFile amiiboFile : amiiboFiles) {
+                if (matcher.matches(amiiboFile))
                     tempList.add(amiiboFile);
             }
             filterResults.count = tempList.size();
@@ -287,6 +348,29 @@ public class BrowserAdapter
             return filterResults;
         }
 
+        private ArrayList<AmiiboFile> rankAmiiboFiles(
+                ArrayList<AmiiboFile> amiiboFiles, String queryText
+        ) {
+            AmiiboSearch amiiboSearch = settings.getAmiiboSearch();
+            if (null == amiiboSearch) return null;
+            AmiiboQuery.Predicate filters = settings.getCompiledQuery("");
+            // The manager was cleared after this pass started
+            if (null == filters) return null;
+            // Files missing from the database can still be found by name
+            return amiiboSearch.search(amiiboFiles, AmiiboFile::getId,
+                    amiiboFile -> filters.matches(amiiboFile.getId()),
+                    amiiboFile -> pathContains(amiiboFile, queryText),
+                    queryText, AmiiboSearch.QUERY_BUDGET_MS);
+        }
+
+        private boolean pathContains(AmiiboFile amiiboFile, String query) {
+            if (null != amiiboFile.getDocUri()
+                    && amiiboFile.getDocUri().toString().toLowerCase().contains(query))
+                return true;
+            return null != amiiboFile.getFilePath() && amiiboFile.getFilePath()
+                    .getAbsolutePath().toLowerCase().contains(query);
+        }
+
         public boolean pathContainsQuery(String path, String query) {
             return !query.isEmpty() && settings.isFilterEmpty()
                     && path.toLowerCase().contains(query);
@@ -296,9 +380,12 @@ public class BrowserAdapter
         @SuppressLint("NotifyDataSetChanged")
         @Override
         protected void publishResults(CharSequence charSequence, FilterResults filterResults) {
+            if (null == filterResults.values) return;
             if (null != filteredData && filteredData == filterResults.values) return;
             filteredData = (ArrayList<AmiiboFile>) filterResults.values;
-            if (getItemCount() > 0)
+            ownedCount = ((AmiiboResults) filterResults).ownedCount;
+            if (getItemCount() > 0 && !(filteredData instanceof AmiiboSearch.RankedList)
+                    && !(filteredData instanceof ParallelFileFilter.SortedList))
                 Collections.sort(filteredData, new AmiiboFileComparator(settings));
             notifyDataSetChanged();
         }
@@ -319,6 +406,7 @@ public class BrowserAdapter
         public final AppCompatImageView imageAmiibo;
 
         AmiiboFile amiiboFile = null;
+        boolean expanded = false;
 
         private final BoldSpannable boldSpannable = new BoldSpannable();
 
@@ -430,7 +518,6 @@ public class BrowserAdapter
                     String relativeDocument = Storage.getRelativeDocument(
                             item.getDocUri().getUri()
                     );
-                    boolean expanded = amiiboPath.contains(relativeDocument);
                     itemView.findViewById(R.id.menu_options)
                             .setVisibility(expanded ? View.VISIBLE : View.GONE);
                     itemView.findViewById(R.id.txtUsage)
@@ -450,7 +537,6 @@ public class BrowserAdapter
                     }
                     setIsHighlighted(relativeDocument.startsWith("/Foomiibo/"));
                 } else if (null != item.getFilePath()) {
-                    boolean expanded = amiiboPath.contains(item.getFilePath().getAbsolutePath());
                     itemView.findViewById(R.id.menu_options)
                             .setVisibility(expanded ? View.VISIBLE : View.GONE);
                     itemView.findViewById(R.id.txtUsage)
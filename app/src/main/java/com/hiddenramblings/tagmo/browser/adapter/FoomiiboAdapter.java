@@ -20,10 +20,13 @@ import com.bumptech.glide.request.target.CustomTarget;
 import com.bumptech.glide.request.transition.Transition;
 import com.hiddenramblings.tagmo.GlideApp;
 import com.hiddenramblings.tagmo.R;
+import com.hiddenramblings.tagmo.TagMo;
 import com.hiddenramblings.tagmo.amiibo.Amiibo;
 import com.hiddenramblings.tagmo.amiibo.AmiiboComparator;
 import com.hiddenramblings.tagmo.amiibo.AmiiboFile;
 import com.hiddenramblings.tagmo.amiibo.AmiiboManager;
+import com.hiddenramblings.tagmo.amiibo.AmiiboQuery;
+import com.hiddenramblings.tagmo.amiibo.AmiiboSearch;
 import com.hiddenramblings.tagmo.nfctech.TagUtils;
 import com.hiddenramblings.tagmo.settings.BrowserSettings;
 import com.hiddenramblings.tagmo.settings.BrowserSettings.BrowserSettingsListener;
@@ -46,7 +49,8 @@ public class FoomiiboAdapter
     private ArrayList<Amiibo> filteredData;
     private FoomiiboFilter filter;
     boolean firstRun = true;
-    private static final ArrayList<Long> foomiiboId = new ArrayList<>();
+    private final SelectionState<Amiibo, Long> selection
+            = new SelectionState<>(amiibo -> amiibo.id);
 
     public FoomiiboAdapter(BrowserSettings settings, OnFoomiiboClickListener listener) {
         this.settings = settings;
@@ -56,8 +60,8 @@ public class FoomiiboAdapter
         this.setHasStableIds(true);
     }
 
-    public static void resetVisible() {
-        foomiiboId.clear();
+    public void resetVisible() {
+        selection.collapseAll();
     }
 
     @Override
@@ -77,6 +81,10 @@ public class FoomiiboAdapter
         }
         if (!BrowserSettings.equals(newBrowserSettings.getAmiiboManager(),
                 oldBrowserSettings.getAmiiboManager())) {
+            if (null != newBrowserSettings.getAmiiboManager())
+                selection.retainAll(newBrowserSettings.getAmiiboManager().amiibos.values());
+            else
+                selection.clear();
             refresh = true;
         }
         if (!BrowserSettings.equals(newBrowserSettings.getAmiiboView(),
@@ -188,13 +196,9 @@ public class FoomiiboAdapter
     private void handleClickEvent(final FoomiiboViewHolder holder) {
         if (null != holder.listener) {
             if (settings.getAmiiboView() != VIEW.IMAGE.getValue()) {
-                if (foomiiboId.contains(holder.foomiibo.id)) {
-                    foomiiboId.remove(holder.foomiibo.id);
-                } else {
-                    foomiiboId.add(holder.foomiibo.id);
-                }
+                holder.expanded = selection.toggleExpanded(holder.foomiibo);
             } else {
-                foomiiboId.clear();
+                selection.collapseAll();
             }
             holder.listener.onFoomiiboClicked(holder.itemView, holder.foomiibo);
         }
@@ -212,7 +216,9 @@ public class FoomiiboAdapter
                     holder.listener.onFoomiiboImageClicked(holder.foomiibo);
             });
         }
-        holder.bind(getItem(clickPosition));
+        Amiibo item = getItem(clickPosition);
+        holder.expanded = selection.isExpanded(item);
+        holder.bind(item);
     }
 
     public void refresh() {
@@ -245,8 +251,18 @@ public class FoomiiboAdapter
 
             ArrayList<Amiibo> tempList = new ArrayList<>();
             String queryText = query.trim().toLowerCase();
+            if (!queryText.isEmpty() && TagMo.getPrefs().enable_fuzzy_search().get()) {
+                ArrayList<Amiibo> rankedList = rankFoomiibo(queryText);
+                if (null != rankedList) {
+                    filterResults.count = rankedList.size();
+                    filterResults.values = rankedList;
+                    return filterResults;
+                }
+            }
+            AmiiboQuery.Predicate predicate = settings.getCompiledQuery(queryText);
             for (Amiibo amiibo : data) {
-                if (settings.amiiboContainsQuery(amiibo, queryText)) tempList.add(amiibo);
+                if (settings.amiiboContainsQuery(amiibo, queryText, predicate))
+                    tempList.add(amiibo);
             }
             filterResults.count = tempList.size();
             filterResults.values = tempList;
@@ -254,6 +270,15 @@ public class FoomiiboAdapter
             return filterResults;
         }
 
+        private ArrayList<Amiibo> rankFoomiibo(String queryText) {
+            AmiiboSearch amiiboSearch = settings.getAmiiboSearch();
+            if (null == amiiboSearch) return null;
+            AmiiboQuery.Predicate filters = settings.getCompiledQuery("");
+            return amiiboSearch.search(data, amiibo -> amiibo.id,
+                    amiibo -> settings.amiiboContainsQuery(amiibo, "", filters), null,
+                    queryText, AmiiboSearch.QUERY_BUDGET_MS);
+        }
+
         @SuppressWarnings("unchecked")
         @SuppressLint("NotifyDataSetChanged")
         @Override
@@ -261,7 +286,9 @@ public class FoomiiboAdapter
             if (null != filteredData && filteredData == filterResults.values) return;
             filteredData = (ArrayList<Amiibo>) filterResults.values;
             if (getItemCount() > 0) {
-                Collections.sort(filteredData, new AmiiboComparator(settings));
+                // Ranked results keep their relevance order within each group
+                boolean isRanked = filteredData instanceof AmiiboSearch.RankedList;
+                if (!isRanked) Collections.sort(filteredData, new AmiiboComparator(settings));
 
                 ArrayList<Amiibo> missingFiles = new ArrayList<>();
                 HashSet<Long> amiiboIds = new HashSet<>();
@@ -277,7 +304,7 @@ public class FoomiiboAdapter
                         missingFiles.add(amiibo);
                     }
                 }
-                if (!missingFiles.isEmpty())
+                if (!missingFiles.isEmpty() && !isRanked)
                     Collections.sort(missingFiles, new AmiiboComparator(settings));
 
                 filteredData.addAll(0, missingFiles);
@@ -302,6 +329,7 @@ public class FoomiiboAdapter
         public final AppCompatImageView imageAmiibo;
 
         Amiibo foomiibo = null;
+        boolean expanded = false;
 
         private final BoldSpannable boldSpannable = new BoldSpannable();
 
@@ -405,7 +433,6 @@ public class FoomiiboAdapter
                 // boldText.Matching(character, query), hasTagInfo);
                 this.txtPath.setVisibility(View.GONE);
 
-                boolean expanded = foomiiboId.contains(foomiibo.id);
                 itemView.findViewById(R.id.menu_options)
                         .setVisibility(expanded ? View.VISIBLE : View.GONE);
                 itemView.findViewById(R.id.txtUsage)
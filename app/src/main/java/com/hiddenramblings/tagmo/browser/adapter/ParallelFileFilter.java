@@ -0,0 +1,213 @@
+package com.hiddenramblings.tagmo.browser.adapter;
+
+import com.hiddenramblings.tagmo.amiibo.Amiibo;
+import com.hiddenramblings.tagmo.amiibo.AmiiboFile;
+import com.hiddenramblings.tagmo.amiibo.AmiiboFileComparator;
+import com.hiddenramblings.tagmo.amiibo.AmiiboManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Split / merge filtering and sorting of large libraries across all cores.
+ * Results are identical to a serial pass followed by Collections.sort.
+ */
+final class ParallelFileFilter {
+
+    static final int PARALLEL_THRESHOLD = 2000;
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int CANCEL_CHECK_MASK = 0xFF;
+    private static ExecutorService executor;
+
+    interface Matcher {
+        boolean matches(AmiiboFile amiiboFile);
+    }
+
+    interface Cancellation {
+        boolean isCancelled();
+    }
+
+    /**
+     * Marker for results that were already sorted off the UI thread
+     */
+    static class SortedList extends ArrayList<AmiiboFile> {
+        SortedList(int capacity) {
+            super(capacity);
+        }
+    }
+
+    private static class SortKey {
+        final AmiiboFile amiiboFile;
+        final Amiibo amiibo;
+
+        SortKey(AmiiboFile amiiboFile, Amiibo amiibo) {
+            this.amiiboFile = amiiboFile;
+            this.amiibo = amiibo;
+        }
+    }
+
+    private ParallelFileFilter() { }
+
+    static boolean isParallel(int size) {
+        return THREADS > 1 && size >= PARALLEL_THRESHOLD;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (null == executor) {
+            executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "ParallelFileFilter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    private static <T> List<T> invokeAll(ArrayList<Callable<T>> tasks) {
+        ArrayList<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(getExecutor().submit(task));
+        }
+        ArrayList<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            for (Future<T> future : futures) future.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            for (Future<T> future : futures) future.cancel(true);
+            throw new RuntimeException(e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Returns the matching files in their original order, or null if cancelled
+     */
+    static ArrayList<AmiiboFile> filter(
+            final List<AmiiboFile> amiiboFiles, final Matcher matcher,
+            final Cancellation cancellation
+    ) {
+        final int size = amiiboFiles.size();
+        final int chunkSize = (size + THREADS - 1) / THREADS;
+        ArrayList<Callable<ArrayList<AmiiboFile>>> tasks = new ArrayList<>(THREADS);
+        for (int start = 0; start < size; start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(size, start + chunkSize);
+            tasks.add(() -> {
+                ArrayList<AmiiboFile> matches = new ArrayList<>();
+                for (int i = from; i < to; i++) {
+                    if ((i & CANCEL_CHECK_MASK) == 0 && cancellation.isCancelled()) return null;
+                    AmiiboFile amiiboFile = amiiboFiles.get(i);
+                    if (matcher.matches(amiiboFile)) matches.add(amiiboFile);
+                }
+                return matches;
+            });
+        }
+        List<ArrayList<AmiiboFile>> chunks = invokeAll(tasks);
+        if (null == chunks) return null;
+        int count = 0;
+        for (ArrayList<AmiiboFile> chunk : chunks) {
+            if (null == chunk) return null;
+            count += chunk.size();
+        }
+        ArrayList<AmiiboFile> results = new ArrayList<>(count);
+        for (ArrayList<AmiiboFile> chunk : chunks) {
+            results.addAll(chunk);
+        }
+        return results;
+    }
+
+    /**
+     * Stable sort of precomputed keys in parallel runs followed by parallel
+     * pairwise merges. Returns null if cancelled.
+     */
+    static SortedList sort(
+            List<AmiiboFile> amiiboFiles, final AmiiboFileComparator comparator,
+            AmiiboManager amiiboManager, final Cancellation cancellation
+    ) {
+        final int size = amiiboFiles.size();
+        SortKey[] keys = new SortKey[size];
+        for (int i = 0; i < size; i++) {
+            AmiiboFile amiiboFile = amiiboFiles.get(i);
+            keys[i] = new SortKey(amiiboFile, null != amiiboManager
+                    ? amiiboManager.amiibos.get(amiiboFile.getId()) : null);
+        }
+        final Comparator<SortKey> keyComparator = (key1, key2) -> comparator.compare(
+                key1.amiiboFile, key1.amiibo, key2.amiiboFile, key2.amiibo);
+
+        final int runSize = Math.max(1, (size + THREADS - 1) / THREADS);
+        final SortKey[] sorting = keys;
+        ArrayList<Callable<Boolean>> runs = new ArrayList<>(THREADS);
+        for (int start = 0; start < size; start += runSize) {
+            final int from = start;
+            final int to = Math.min(size, start + runSize);
+            runs.add(() -> {
+                if (cancellation.isCancelled()) return false;
+                Arrays.sort(sorting, from, to, keyComparator);
+                return true;
+            });
+        }
+        if (!isComplete(invokeAll(runs))) return null;
+
+        SortKey[] source = keys;
+        SortKey[] target = new SortKey[size];
+        for (int width = runSize; width < size; width *= 2) {
+            final SortKey[] src = source;
+            final SortKey[] dst = target;
+            ArrayList<Callable<Boolean>> merges = new ArrayList<>();
+            for (int start = 0; start < size; start += 2 * width) {
+                final int low = start;
+                final int middle = Math.min(size, start + width);
+                final int high = Math.min(size, start + 2 * width);
+                merges.add(() -> {
+                    if (cancellation.isCancelled()) return false;
+                    merge(src, dst, low, middle, high, keyComparator);
+                    return true;
+                });
+            }
+            if (!isComplete(invokeAll(merges))) return null;
+            source = dst;
+            target = src;
+        }
+
+        SortedList sorted = new SortedList(size);
+        for (SortKey key : source) {
+            sorted.add(key.amiiboFile);
+        }
+        return sorted;
+    }
+
+    private static boolean isComplete(List<Boolean> results) {
+        if (null == results) return false;
+        for (Boolean result : results) {
+            if (!result) return false;
+        }
+        return true;
+    }
+
+    private static void merge(SortKey[] src, SortKey[] dst, int low, int middle, int high,
+                              Comparator<SortKey> comparator) {
+        int left = low;
+        int right = middle;
+        for (int i = low; i < high; i++) {
+            // Ties take the left run to keep the sort stable
+            if (left < middle && (right >= high
+                    || comparator.compare(src[left], src[right]) <= 0)) {
+                dst[i] = src[left++];
+            } else {
+                dst[i] = src[right++];
+            }
+        }
+    }
+}
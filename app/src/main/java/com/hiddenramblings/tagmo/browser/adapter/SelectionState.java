@@ -0,0 +1,105 @@
+package com.hiddenramblings.tagmo.browser.adapter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Expanded and selected rows of a single adapter, keyed by stable item identity
+ */
+class SelectionState<T, K> {
+
+    interface KeyProvider<T, K> {
+        K getKey(T item);
+    }
+
+    private final KeyProvider<T, K> provider;
+    private final HashSet<K> expanded = new HashSet<>();
+    private final LinkedHashMap<K, T> selected = new LinkedHashMap<>();
+    private boolean multiSelect;
+
+    SelectionState(KeyProvider<T, K> provider) {
+        this.provider = provider;
+    }
+
+    boolean isExpanded(T item) {
+        K key = provider.getKey(item);
+        return null != key && expanded.contains(key);
+    }
+
+    /**
+     * Returns true if the item is now expanded
+     */
+    boolean toggleExpanded(T item) {
+        K key = provider.getKey(item);
+        if (null == key) return false;
+        if (expanded.remove(key)) return false;
+        expanded.add(key);
+        return true;
+    }
+
+    void collapseAll() {
+        expanded.clear();
+    }
+
+    void setMultiSelect(boolean multiSelect) {
+        this.multiSelect = multiSelect;
+        if (!multiSelect && selected.size() > 1) selected.clear();
+    }
+
+    boolean isSelected(T item) {
+        K key = provider.getKey(item);
+        return null != key && selected.containsKey(key);
+    }
+
+    /**
+     * Returns true if the item is now selected
+     */
+    boolean toggleSelected(T item) {
+        K key = provider.getKey(item);
+        if (null == key) return false;
+        if (null != selected.remove(key)) return false;
+        if (!multiSelect) selected.clear();
+        selected.put(key, item);
+        return true;
+    }
+
+    /**
+     * Returns the selected items in the order they were selected
+     */
+    ArrayList<T> getSelected() {
+        return new ArrayList<>(selected.values());
+    }
+
+    void clearSelected() {
+        selected.clear();
+    }
+
+    void clear() {
+        expanded.clear();
+        selected.clear();
+    }
+
+    /**
+     * Drops the state of any item that is no longer part of the data set
+     */
+    void retainAll(Collection<T> items) {
+        if (expanded.isEmpty() && selected.isEmpty()) return;
+        if (null == items || items.isEmpty()) {
+            clear();
+            return;
+        }
+        HashSet<K> keys = new HashSet<>(items.size());
+        for (T item : items) {
+            K key = provider.getKey(item);
+            if (null != key) keys.add(key);
+        }
+        expanded.retainAll(keys);
+        Iterator<K> iterator = selected.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!keys.contains(iterator.next())) iterator.remove();
+        }
+    }
+}
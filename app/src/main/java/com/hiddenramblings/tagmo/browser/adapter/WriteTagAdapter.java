@@ -26,6 +26,7 @@ import com.hiddenramblings.tagmo.amiibo.Amiibo;
 import com.hiddenramblings.tagmo.amiibo.AmiiboFile;
 import com.hiddenramblings.tagmo.amiibo.AmiiboFileComparator;
 import com.hiddenramblings.tagmo.amiibo.AmiiboManager;
+import com.hiddenramblings.tagmo.amiibo.AmiiboQuery;
 import com.hiddenramblings.tagmo.eightbit.os.Storage;
 import com.hiddenramblings.tagmo.nfctech.TagUtils;
 import com.hiddenramblings.tagmo.settings.BrowserSettings;
@@ -45,7 +46,8 @@ public class WriteTagAdapter extends RecyclerView.Adapter<WriteTagAdapter.Amiibo
     private ArrayList<AmiiboFile> filteredData;
     private AmiiboFilter filter;
     boolean firstRun;
-    private final ArrayList<AmiiboFile> amiiboList = new ArrayList<>();
+    private final SelectionState<AmiiboFile, String> selection
+            = new SelectionState<>(BrowserAdapter::getIdentity);
 
     public WriteTagAdapter(BrowserSettings settings, OnAmiiboClickListener listener) {
         this.settings = settings;
@@ -59,6 +61,7 @@ public class WriteTagAdapter extends RecyclerView.Adapter<WriteTagAdapter.Amiibo
     public WriteTagAdapter(BrowserSettings settings, OnHighlightListener collector) {
         this.settings = settings;
         this.collector = collector;
+        this.selection.setMultiSelect(true);
 
         firstRun = true;
         this.filteredData = this.amiiboFiles;
@@ -70,7 +73,7 @@ public class WriteTagAdapter extends RecyclerView.Adapter<WriteTagAdapter.Amiibo
     }
 
     public void resetSelections() {
-        this.amiiboList.clear();
+        this.selection.clearSelected();
     }
 
     @Override
@@ -89,6 +92,7 @@ public class WriteTagAdapter extends RecyclerView.Adapter<WriteTagAdapter.Amiibo
                 this.amiiboFiles = new ArrayList<>(newBrowserSettings.getAmiiboFiles());
             else
                 this.amiiboFiles.clear();
+            selection.retainAll(this.amiiboFiles);
             refresh = true;
         }
         if (!BrowserSettings.equals(newBrowserSettings.getAmiiboManager(),
@@ -150,14 +154,8 @@ public class WriteTagAdapter extends RecyclerView.Adapter<WriteTagAdapter.Amiibo
 
     private void handleClickEvent(final AmiiboViewHolder holder, int position) {
         if (null != holder.collector) {
-            if (amiiboList.contains(holder.amiiboFile)) {
-                amiiboList.remove(filteredData.get(position));
-                setIsHighlighted(holder, false);
-            } else {
-                amiiboList.add(filteredData.get(position));
-                setIsHighlighted(holder, true);
-            }
-            holder.collector.onAmiiboClicked(amiiboList);
+            setIsHighlighted(holder, selection.toggleSelected(filteredData.get(position)));
+            holder.collector.onAmiiboClicked(selection.getSelected());
         } else if (null != holder.listener) {
             holder.listener.onAmiiboClicked(holder.amiiboFile);
         }
@@ -176,7 +174,7 @@ public class WriteTagAdapter extends RecyclerView.Adapter<WriteTagAdapter.Amiibo
             });
         }
         holder.bind(getItem(clickPosition));
-        setIsHighlighted(holder, amiiboList.contains(holder.amiiboFile));
+        setIsHighlighted(holder, selection.isSelected(holder.amiiboFile));
     }
 
     public void refresh() {
@@ -198,13 +196,14 @@ public class WriteTagAdapter extends RecyclerView.Adapter<WriteTagAdapter.Amiibo
             ArrayList<AmiiboFile> tempList = new ArrayList<>();
             String queryText = settings.getQuery().trim().toLowerCase();
             AmiiboManager amiiboManager = settings.getAmiiboManager();
+            AmiiboQuery.Predicate predicate = settings.getCompiledQuery(queryText);
             for (AmiiboFile amiiboFile : amiiboFiles) {
                 boolean add = false;
                 if (null != amiiboManager) {
                     Amiibo amiibo = amiiboManager.amiibos.get(amiiboFile.getId());
                     if (null == amiibo)
                         amiibo = new Amiibo(amiiboManager, amiiboFile.getId(), null, null);
-                    add = settings.amiiboContainsQuery(amiibo, queryText);
+                    add = settings.amiiboContainsQuery(amiibo, queryText, predicate);
                 }
                 if (!add && null != amiiboFile.getDocUri())
                     add = pathContainsQuery(amiiboFile.getDocUri().toString(), queryText);
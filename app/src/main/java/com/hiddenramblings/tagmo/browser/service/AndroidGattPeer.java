@@ -0,0 +1,76 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Submits the operations of a GattQueue to a BluetoothGatt connection
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+@SuppressLint("MissingPermission")
+class AndroidGattPeer implements GattPeer {
+
+    private final BluetoothGatt gatt;
+    private final HashMap<UUID, BluetoothGattCharacteristic> characteristics = new HashMap<>();
+
+    AndroidGattPeer(BluetoothGatt gatt) {
+        this.gatt = gatt;
+    }
+
+    /**
+     * Uses this characteristic for its UUID, in case more than one service
+     * of the device has one with the same UUID
+     */
+    void register(BluetoothGattCharacteristic characteristic) {
+        if (null != characteristic) characteristics.put(characteristic.getUuid(), characteristic);
+    }
+
+    private BluetoothGattCharacteristic getCharacteristic(UUID uuid) {
+        BluetoothGattCharacteristic characteristic = characteristics.get(uuid);
+        if (null != characteristic) return characteristic;
+        for (BluetoothGattService service : gatt.getServices()) {
+            characteristic = service.getCharacteristic(uuid);
+            if (null != characteristic) return characteristic;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID uuid, byte[] value, int writeType) {
+        BluetoothGattCharacteristic characteristic = getCharacteristic(uuid);
+        if (null == characteristic) return false;
+        characteristic.setValue(value);
+        characteristic.setWriteType(writeType);
+        return gatt.writeCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean writeDescriptor(UUID uuid, UUID descriptorUuid, byte[] value) {
+        BluetoothGattCharacteristic characteristic = getCharacteristic(uuid);
+        if (null == characteristic) return false;
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(descriptorUuid);
+        if (null == descriptor) return false;
+        descriptor.setValue(value);
+        return gatt.writeDescriptor(descriptor);
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID uuid) {
+        BluetoothGattCharacteristic characteristic = getCharacteristic(uuid);
+        return null != characteristic && gatt.readCharacteristic(characteristic);
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && gatt.requestMtu(mtu);
+    }
+}
@@ -0,0 +1,53 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Framing for the binary upload of firmware that supports it. Each frame
+ * is a sequence number, the payload length, the payload and a CRC-16 of
+ * the preceding bytes, sent as a single packet in place of Base64 text
+ * wrapped in a JavaScript call for every chunk.
+ */
+class BinaryUpload {
+
+    private static final int HEADER_SIZE = 2;
+    private static final int CRC_SIZE = 2;
+    private static final int MAX_PAYLOAD = 0xFF;
+
+    /**
+     * Splits the data into frames that each fit in a packet of frameSize
+     */
+    static List<byte[]> toFrames(byte[] data, int frameSize) {
+        int payloadSize = Math.max(1, Math.min(MAX_PAYLOAD, frameSize - HEADER_SIZE - CRC_SIZE));
+        List<byte[]> frames = new ArrayList<>();
+        int sequence = 0;
+        for (int offset = 0; offset < data.length; offset += payloadSize) {
+            int length = Math.min(payloadSize, data.length - offset);
+            byte[] frame = new byte[HEADER_SIZE + length + CRC_SIZE];
+            frame[0] = (byte) sequence;
+            frame[1] = (byte) length;
+            System.arraycopy(data, offset, frame, HEADER_SIZE, length);
+            int crc = crc16(frame, 0, HEADER_SIZE + length);
+            frame[HEADER_SIZE + length] = (byte) (crc >> 8);
+            frame[HEADER_SIZE + length + 1] = (byte) crc;
+            frames.add(frame);
+            sequence = (sequence + 1) & 0xFF;
+        }
+        return frames;
+    }
+
+    /**
+     * CRC-16/CCITT-FALSE
+     */
+    static int crc16(byte[] data, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= (data[i] & 0xFF) << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+        }
+        return crc & 0xFFFF;
+    }
+}
@@ -0,0 +1,39 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+/**
+ * The console output of a Flask, split into responses. Each response
+ * completes the command in flight, after the uploader has seen the answers
+ * meant for it, and is then passed on to the handler.
+ */
+class FlaskConsole {
+
+    interface Handler {
+        void onResponse(String response);
+    }
+
+    private final GattTransport transport;
+    private final FlaskUploader uploader;
+    private final Handler handler;
+    private final ResponseParser parser = new ResponseParser(this::onResponse);
+
+    FlaskConsole(GattTransport transport, FlaskUploader uploader, Handler handler) {
+        this.transport = transport;
+        this.uploader = uploader;
+        this.handler = handler;
+    }
+
+    void append(String output) {
+        parser.append(output);
+    }
+
+    void reset() {
+        parser.reset();
+    }
+
+    private void onResponse(String response) {
+        // A rejected dump is resent ahead of the commands queued behind it
+        uploader.onResponse(response);
+        transport.onCommandComplete();
+        handler.onResponse(response);
+    }
+}
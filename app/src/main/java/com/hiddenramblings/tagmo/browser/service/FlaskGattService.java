@@ -56,30 +56,16 @@
 
 package com.hiddenramblings.tagmo.browser.service;
 
-import android.annotation.SuppressLint;
-import android.app.Service;
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
-import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Build;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
 import android.util.Base64;
 
 import androidx.annotation.RequiresApi;
 
 import com.hiddenramblings.tagmo.amiibo.Amiibo;
-import com.hiddenramblings.tagmo.eightbit.charset.CharsetCompat;
 import com.hiddenramblings.tagmo.eightbit.io.Debug;
 import com.hiddenramblings.tagmo.nfctech.TagUtils;
 
@@ -87,10 +73,6 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Objects;
 import java.util.UUID;
 
 /**
@@ -98,489 +80,176 @@ import java.util.UUID;
  * given Bluetooth LE device.
  */
 @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
-@SuppressLint("MissingPermission")
-public class FlaskGattService extends Service {
-
-    private final Class<?> TAG = FlaskGattService.class;
+public class FlaskGattService extends GattTransportService {
 
     private BluetoothGattListener listener;
 
-    private BluetoothManager mBluetoothManager;
-    private BluetoothAdapter mBluetoothAdapter;
-    private String mBluetoothDeviceAddress;
-    private BluetoothGatt mBluetoothGatt;
-
-    BluetoothGattCharacteristic mCharacteristicRX = null;
-    BluetoothGattCharacteristic mCharacteristicTX = null;
-
     private String nameCompat = null;
     private String tailCompat = null;
 
+    private final FlaskUploader uploader = new FlaskUploader(transport);
+
     public final static UUID FlaskNUS = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
     private final static UUID FlaskTX = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
     private final static UUID FlaskRX = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
 
     public void setListener(BluetoothGattListener listener) {
         this.listener = listener;
+        setConnectionListener(listener);
     }
 
-    private final ArrayList<Runnable> Callbacks = new ArrayList<>();
-
-    public interface BluetoothGattListener {
-        void onServicesDiscovered();
+    public interface BluetoothGattListener extends ConnectionListener {
         void onFlaskActiveChanged(JSONObject jsonObject);
         void onFlaskStatusChanged(JSONObject jsonObject);
         void onFlaskListRetrieved(JSONArray jsonArray);
         void onFlaskFilesDownload(String dataString);
         void onFlaskFilesUploaded();
-        void onGattConnectionLost();
     }
 
-    StringBuilder response = new StringBuilder();
+    private final FlaskConsole console = new FlaskConsole(transport, uploader, this::onResponse);
 
-    private void getCharacteristicValue(BluetoothGattCharacteristic characteristic) {
-        final byte[] data = characteristic.getValue();
-        if (data != null && data.length > 0) {
-            String output = new String(data);
-            Debug.Verbose(TAG, getLogTag(characteristic.getUuid()) + " " + output);
-
-            if (characteristic.getUuid().compareTo(FlaskRX) == 0) {
-                if (output.contains(">tag.")) {
-                    response = new StringBuilder();
-                    response.append(output.split(">")[1]);
-                } else if (output.startsWith("tag.") || output.startsWith("{") || response.length() > 0) {
-                    response.append(output);
-                }
-                String progress = response.length() > 0 ? response.toString().trim().replaceAll(
-                        Objects.requireNonNull(System.getProperty("line.separator")), ""
-                ) : "";
-
-                if (isJSONValid(progress) || progress.endsWith(">")
-                        || progress.lastIndexOf("undefined") == 0
-                        || progress.lastIndexOf("\n") == 0) {
-                    if (Callbacks.size() > 0) {
-                        Callbacks.get(0).run();
-                        Callbacks.remove(0);
-                    }
+    private void onResponse(String progress) {
+        if (progress.startsWith("tag.get()") || progress.startsWith("tag.setTag")) {
+            if (progress.endsWith(">")) {
+                if (progress.contains("Uncaught no such element")
+                        && null != nameCompat && null != tailCompat) {
+                    fixAmiiboName(nameCompat, tailCompat);
+                    nameCompat = null;
+                    tailCompat = null;
+                    return;
                 }
-
-                if (progress.startsWith("tag.get()") || progress.startsWith("tag.setTag")) {
-                    if (progress.endsWith(">")) {
-                        if (progress.contains("Uncaught no such element")
-                                && null != nameCompat && null != tailCompat) {
-                            response = new StringBuilder();
-                            fixAmiiboName(nameCompat, tailCompat);
-                            nameCompat = null;
-                            tailCompat = null;
-                            return;
-                        }
-                        try {
-                            String getAmiibo = progress.substring(progress.indexOf("{"),
-                                    progress.lastIndexOf("}") + 1);
-                            if (null != listener) {
-                                try {
-                                    JSONObject jsonObject = new JSONObject(getAmiibo);
-                                    listener.onFlaskActiveChanged(jsonObject);
-                                } catch (JSONException e) {
-                                    Debug.Warn(e);
-                                    if (null != listener)
-                                        listener.onFlaskActiveChanged(null);
-                                }
-                            }
-                        } catch (StringIndexOutOfBoundsException ex) {
-                            Debug.Warn(ex);
-                        }
-                        response = new StringBuilder();
-                    }
-                } else if (progress.startsWith("tag.getList()")) {
-                    if (progress.endsWith(">") || progress.endsWith("\n")) {
-                        String getList = progress.substring(progress.indexOf("["),
-                                progress.lastIndexOf("]") + 1);
-                        try {
-                            String escapedList = getList.replace("'", "\\'")
-                                    .replace("-", "\\-");
-                            JSONArray jsonArray = new JSONArray(escapedList);
-                            if (null != listener) listener.onFlaskListRetrieved(jsonArray);
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-                        response = new StringBuilder();
-                        if (null != listener) listener.onFlaskFilesUploaded();
-                    }
-                } else if (progress.startsWith("tag.remove")) {
-                    if (progress.endsWith(">") || progress.endsWith("\n")) {
-                        if (null != listener) listener.onFlaskStatusChanged(null);
-                        response = new StringBuilder();
-                    }
-                } else if (progress.startsWith("tag.download")) {
-                    if (progress.endsWith(">") || progress.endsWith("\n")) {
-                        String[] getData = progress.split("new Uint8Array");
-                        if (null != listener) {
-                            for (String dataString : getData) {
-                                if (dataString.startsWith("tag.download")
-                                        && dataString.endsWith("=")) continue;
-                                dataString = dataString.substring(1, dataString
-                                        .lastIndexOf(">") - 2);
-                                listener.onFlaskFilesDownload(dataString);
-                            }
-                        }
-                    }
-                } else if (progress.startsWith("tag.createBlank()")) {
-                    if (progress.endsWith(">") || progress.endsWith("\n")) {
-                        response = new StringBuilder();
-                        if (null != listener) listener.onFlaskStatusChanged(null);
-                    }
-                } else if (progress.endsWith("}")) {
+                try {
+                    String getAmiibo = progress.substring(progress.indexOf("{"),
+                            progress.lastIndexOf("}") + 1);
                     if (null != listener) {
                         try {
-                            JSONObject jsonObject = new JSONObject(response.toString());
-                            String event = jsonObject.getString("event");
-                            if (event.equals("button"))
-                                listener.onFlaskActiveChanged(jsonObject);
-                            if (event.equals("delete"))
-                                listener.onFlaskStatusChanged(jsonObject);
+                            JSONObject jsonObject = new JSONObject(getAmiibo);
+                            listener.onFlaskActiveChanged(jsonObject);
                         } catch (JSONException e) {
-                            if (null != e.getMessage() && e.getMessage().contains("tag.setTag")) {
-                                getActiveAmiibo();
-                            } else {
-                                e.printStackTrace();
-                            }
+                            Debug.Warn(e);
+                            if (null != listener)
+                                listener.onFlaskActiveChanged(null);
                         }
                     }
-                    response = new StringBuilder();
-                } else if (progress.endsWith(">")) {
-                    response = new StringBuilder();
+                } catch (StringIndexOutOfBoundsException ex) {
+                    Debug.Warn(ex);
                 }
             }
-        }
-    }
-
-    // Implements callback methods for GATT events that the app cares about.  For example,
-    // connection change and services discovered.
-    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                mBluetoothGatt.discoverServices();
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                if (null != listener) listener.onGattConnectionLost();
-            }
-        }
-
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
-                    mBluetoothGatt.requestMtu(512); // Maximum: 517
-                else if (null != listener) listener.onServicesDiscovered();
-            } else {
-                Debug.Warn(TAG, "onServicesDiscovered received: " + status);
+        } else if (progress.startsWith("tag." + FlaskUploader.BINARY_PROBE)) {
+            Debug.Verbose(TAG, "Binary upload " + uploader.isBinaryUpload());
+        } else if (progress.startsWith("tag.finishBinaryUpload")) {
+            if (!progress.contains("=true"))
+                Debug.Warn(TAG, "Binary upload rejected, resending as commands");
+        } else if (progress.startsWith("tag.getList()")) {
+            try {
+                String getList = progress.substring(progress.indexOf("["),
+                        progress.lastIndexOf("]") + 1);
+                String escapedList = getList.replace("'", "\\'")
+                        .replace("-", "\\-");
+                JSONArray jsonArray = new JSONArray(escapedList);
+                if (null != listener) listener.onFlaskListRetrieved(jsonArray);
+            } catch (JSONException | StringIndexOutOfBoundsException e) {
+                e.printStackTrace();
             }
-        }
-
-        @Override
-        public void onCharacteristicRead(
-                BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status
-        ) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                getCharacteristicValue(characteristic);
+            if (null != listener) listener.onFlaskFilesUploaded();
+        } else if (progress.startsWith("tag.remove")) {
+            if (null != listener) listener.onFlaskStatusChanged(null);
+        } else if (progress.startsWith("tag.download")) {
+            String[] getData = progress.split("new Uint8Array");
+            if (null != listener) {
+                for (String dataString : getData) {
+                    if (dataString.startsWith("tag.download")
+                            && dataString.endsWith("=")) continue;
+                    dataString = dataString.substring(1, dataString
+                            .lastIndexOf(">") - 2);
+                    listener.onFlaskFilesDownload(dataString);
+                }
             }
-        }
-
-        @Override
-        public void onCharacteristicWrite(
-                BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status
-        ) {
-            Debug.Verbose(TAG, getLogTag(characteristic.getUuid())
-                    + " onCharacteristicWrite " + status);
-        }
-
-        @Override
-        public void onCharacteristicChanged(
-                BluetoothGatt gatt, BluetoothGattCharacteristic characteristic
-        ) {
-            getCharacteristicValue(characteristic);
-        }
-
-        @Override
-        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Debug.Verbose(TAG, "onMtuChange complete: " + mtu);
-            } else {
-                Debug.Warn(TAG, "onMtuChange received: " + status);
+        } else if (progress.startsWith("tag.createBlank()")) {
+            if (null != listener) listener.onFlaskStatusChanged(null);
+        } else if (progress.endsWith("}")) {
+            if (null != listener) {
+                try {
+                    JSONObject jsonObject = new JSONObject(progress);
+                    String event = jsonObject.getString("event");
+                    if (event.equals("button"))
+                        listener.onFlaskActiveChanged(jsonObject);
+                    if (event.equals("delete"))
+                        listener.onFlaskStatusChanged(jsonObject);
+                } catch (JSONException e) {
+                    if (null != e.getMessage() && e.getMessage().contains("tag.setTag")) {
+                        getActiveAmiibo();
+                    } else {
+                        e.printStackTrace();
+                    }
+                }
             }
-            if (null != listener) listener.onServicesDiscovered();
-        }
-    };
-
-    public class LocalBinder extends Binder {
-        public FlaskGattService getService() {
-            return FlaskGattService.this;
         }
     }
 
     @Override
-    public IBinder onBind(Intent intent) {
-        return mBinder;
+    String getDeviceName() {
+        return "Flask";
     }
 
     @Override
-    public boolean onUnbind(Intent intent) {
-        // After using a given device, you should make sure that BluetoothGatt.close() is called
-        // such that resources are cleaned up properly.  In this particular example, close() is
-        // invoked when the UI is disconnected from the Service.
-        if (mBluetoothGatt == null) {
-            return super.onUnbind(intent);
-        }
-        mBluetoothGatt.close();
-        mBluetoothGatt = null;
-        return super.onUnbind(intent);
+    UUID getServiceUUID() {
+        return FlaskNUS;
     }
 
-    private final IBinder mBinder = new LocalBinder();
-
-    /**
-     * Initializes a reference to the local Bluetooth adapter.
-     *
-     * @return Return true if the initialization is successful.
-     */
-    public boolean initialize() {
-        // For API level 18 and above, get a reference to BluetoothAdapter through BluetoothManager.
-        if (mBluetoothManager == null) {
-            mBluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
-            if (mBluetoothManager == null) {
-                return false;
-            }
-        }
-
-        mBluetoothAdapter = mBluetoothManager.getAdapter();
-        return mBluetoothAdapter != null;
+    @Override
+    UUID getCharacteristicUUIDTX() {
+        return FlaskTX;
     }
 
-    /**
-     * Connects to the GATT server hosted on the Bluetooth LE device.
-     *
-     * @param address The device address of the destination device.
-     * @return Return true if the connection is initiated successfully. The connection result
-     * is reported asynchronously through the
-     * {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
-     * callback.
-     */
-    public boolean connect(final String address) {
-        if (mBluetoothAdapter == null || address == null) {
-            return false;
-        }
-
-        // Previously connected device.  Try to reconnect.
-        if (address.equals(mBluetoothDeviceAddress) && mBluetoothGatt != null) {
-            return mBluetoothGatt.connect();
-        }
-
-        final BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
-        if (device == null) {
-            return false;
-        }
-        // We want to directly connect to the device, so we are setting the autoConnect
-        // parameter to false.
-        mBluetoothGatt = device.connectGatt(this, false, mGattCallback);
-        mBluetoothDeviceAddress = address;
-        return true;
+    @Override
+    UUID getCharacteristicUUIDRX() {
+        return FlaskRX;
     }
 
-    /**
-     * Disconnects an existing connection or cancel a pending connection. The disconnection result
-     * is reported asynchronously through the
-     * {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
-     * callback.
-     */
-    public void disconnect() {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            return;
+    @Override
+    void onCharacteristicValue(BluetoothGattCharacteristic characteristic, byte[] data) {
+        if (characteristic.getUuid().compareTo(FlaskRX) == 0) {
+            console.append(new String(data));
         }
-        mBluetoothGatt.disconnect();
     }
 
-    private void setResponseDescriptors(BluetoothGattCharacteristic characteristic) {
-        try {
-            BluetoothGattDescriptor descriptorTX = characteristic.getDescriptor(
-                    UUID.fromString("00002902-0000-1000-8000-00805f9b34fb")
-            );
-            descriptorTX.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            mBluetoothGatt.writeDescriptor(descriptorTX);
-        } catch (Exception ignored) {
-        }
-        try {
-            BluetoothGattDescriptor descriptorTX = characteristic.getDescriptor(
-                    UUID.fromString("00002902-0000-1000-8000-00805f9b34fb")
-            );
-            descriptorTX.setValue(BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
-            mBluetoothGatt.writeDescriptor(descriptorTX);
-        } catch (Exception ignored) {
-        }
+    @Override
+    void onConnectionLost() {
+        console.reset();
+        uploader.reset();
     }
 
-    /**
-     * Enables or disables notification on a give characteristic.
-     *
-     * @param characteristic Characteristic to act on.
-     * @param enabled        If true, enable notification.  False otherwise.
-     */
-    public void setCharacteristicNotification(
-            BluetoothGattCharacteristic characteristic, boolean enabled) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            return;
+    public class LocalBinder extends Binder {
+        public FlaskGattService getService() {
+            return FlaskGattService.this;
         }
-        mBluetoothGatt.setCharacteristicNotification(characteristic, enabled);
-        setResponseDescriptors(characteristic);
     }
 
-    /**
-     * Retrieves a list of supported GATT services on the connected device. This should be
-     * invoked only after {@code BluetoothGatt#discoverServices()} completes successfully.
-     *
-     * @return A {@code List} of supported services.
-     */
-    public List<BluetoothGattService> getSupportedGattServices() {
-        if (mBluetoothGatt == null) return null;
-
-        return mBluetoothGatt.getServices();
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
     }
 
-    public BluetoothGattCharacteristic getCharacteristicRX(BluetoothGattService mCustomService) {
-        BluetoothGattCharacteristic mReadCharacteristic =
-                mCustomService.getCharacteristic(FlaskRX);
-        if (!mBluetoothGatt.readCharacteristic(mReadCharacteristic)) {
-            for (BluetoothGattCharacteristic customRead : mCustomService.getCharacteristics()) {
-                UUID customUUID = customRead.getUuid();
-                /*get the read characteristic from the service*/
-                if (customUUID.compareTo(FlaskRX) == 0) {
-                    Debug.Verbose(TAG, "GattReadCharacteristic: " + customUUID);
-                    mReadCharacteristic = mCustomService.getCharacteristic(customUUID);
-                    break;
-                }
-            }
-        }
-        return mReadCharacteristic;
-    }
+    private final IBinder mBinder = new LocalBinder();
 
     public void setFlaskCharacteristicRX() throws UnsupportedOperationException {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            throw new UnsupportedOperationException();
-        }
-
-        BluetoothGattService mCustomService = mBluetoothGatt.getService(FlaskNUS);
-        /*check if the service is available on the device*/
-        if (null == mCustomService) {
-            List<BluetoothGattService> services = getSupportedGattServices();
-            if (null == services || services.isEmpty()) {
-                throw new UnsupportedOperationException();
-            }
-
-            for (BluetoothGattService customService : services) {
-                Debug.Verbose(TAG, "GattReadService: " + customService.getUuid().toString());
-                /*get the read characteristic from the service*/
-                mCharacteristicRX = getCharacteristicRX(customService);
-                break;
-            }
-        } else {
-            mCharacteristicRX = getCharacteristicRX(mCustomService);
-        }
-        setCharacteristicNotification(mCharacteristicRX, true);
-    }
-
-    public BluetoothGattCharacteristic getCharacteristicTX(BluetoothGattService mCustomService) {
-        BluetoothGattCharacteristic mWriteCharacteristic =
-                mCustomService.getCharacteristic(FlaskTX);
-        if (!mBluetoothGatt.writeCharacteristic(mWriteCharacteristic)) {
-            for (BluetoothGattCharacteristic customWrite : mCustomService.getCharacteristics()) {
-                UUID customUUID = customWrite.getUuid();
-                /*get the write characteristic from the service*/
-                if (customUUID.compareTo(FlaskTX) == 0) {
-                    Debug.Verbose(TAG, "GattWriteCharacteristic: " + customUUID);
-                    mWriteCharacteristic = mCustomService.getCharacteristic(customUUID);
-                    break;
-                }
-            }
-        }
-        return mWriteCharacteristic;
+        setCharacteristicRX();
     }
 
     public void setFlaskCharacteristicTX() throws UnsupportedOperationException {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            throw new UnsupportedOperationException();
-        }
-
-        BluetoothGattService mCustomService = mBluetoothGatt.getService(FlaskNUS);
-        /*check if the service is available on the device*/
-        if (null == mCustomService) {
-            List<BluetoothGattService> services = getSupportedGattServices();
-            if (null == services || services.isEmpty()) {
-                throw new UnsupportedOperationException();
-            }
-
-            for (BluetoothGattService customService : services) {
-                Debug.Verbose(TAG, "GattWriteService: " + customService.getUuid().toString());
-                /*get the read characteristic from the service*/
-                mCharacteristicTX = getCharacteristicTX(customService);
-            }
-        } else {
-            mCharacteristicTX = getCharacteristicTX(mCustomService);
-        }
-        setCharacteristicNotification(mCharacteristicTX, true);
-    }
-
-    private void delayedWriteCharacteristic(byte[] value) {
-        List<byte[]> chunks = byteToPortions(value, 20);
-        int commandQueue = Callbacks.size() + 1 + chunks.size();
-        new Handler(Looper.getMainLooper()).postDelayed(() -> {
-            for (int i = 0; i < chunks.size(); i += 1) {
-                final byte[] chunk = chunks.get(i);
-                new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                    mCharacteristicTX.setValue(chunk);
-                    mCharacteristicTX.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
-                    mBluetoothGatt.writeCharacteristic(mCharacteristicTX);
-                }, (i + 1) * 30L);
-            }
-        }, commandQueue * 30L);
-    }
-
-    public void queueTagCharacteristic(String value, int index) {
-        if (null == mCharacteristicTX) {
-            try {
-                setFlaskCharacteristicTX();
-            } catch (UnsupportedOperationException e) {
-                e.printStackTrace();
-            }
-        }
-
-        Callbacks.add(index, () -> delayedWriteCharacteristic(
-                ("tag." + value + "\n").getBytes(CharsetCompat.UTF_8)
-        ));
-
-        if (Callbacks.size() == 1) {
-            Callbacks.get(0).run();
-        }
+        setCharacteristicTX();
     }
 
-    public void delayedTagCharacteristic(String value) {
-        queueTagCharacteristic(value, Callbacks.size());
+    /**
+     * Asks the firmware whether it accepts binary uploads
+     */
+    public void probeBinaryUpload() {
+        checkCharacteristicTX();
+        uploader.probe();
     }
 
-    public void promptTagCharacteristic(String value) {
-        queueTagCharacteristic(value, 0);
-    }
-    
-    public void uploadAmiiboFile(byte[] amiiboData, Amiibo amiibo) {
-        delayedTagCharacteristic("startTagUpload(" + amiiboData.length + ")");
-        List<String> chunks = stringToPortions(Base64.encodeToString(
-                amiiboData, Base64.NO_PADDING | Base64.NO_CLOSE | Base64.NO_WRAP
-        ), 128);
-        for (int i = 0; i < chunks.size(); i+=1) {
-            final String chunk = chunks.get(i);
-            delayedTagCharacteristic(
-                    "tagUploadChunk(\"" + chunk + "\")"
-            );
-        }
+    private String getUploadName(Amiibo amiibo) {
         String flaskTail = Integer.toString(Integer.parseInt(TagUtils
                 .amiiboIdToHex(amiibo.id).substring(8, 16), 16), 36);
         int reserved = flaskTail.length() + 3; // |tail|#
@@ -589,13 +258,19 @@ public class FlaskGattService extends Service {
                 ? nameUnicode.substring(0, nameUnicode.length()
                 - ((nameUnicode.length() + reserved) - 28))
                 : nameUnicode;
-        delayedTagCharacteristic("saveUploadedTag(\""
-                + amiiboName + "|" + flaskTail + "|0\")");
+        return amiiboName + "|" + flaskTail + "|0";
+    }
+
+    public void uploadAmiiboFile(byte[] amiiboData, Amiibo amiibo) {
+        checkCharacteristicTX();
+        uploader.upload(amiiboData, Base64.encodeToString(
+                amiiboData, Base64.NO_PADDING | Base64.NO_CLOSE | Base64.NO_WRAP
+        ), getUploadName(amiibo));
     }
 
     public void uploadFilesComplete() {
-        delayedTagCharacteristic("uploadsComplete()");
-        delayedTagCharacteristic("getList()");
+        checkCharacteristicTX();
+        uploader.uploadsComplete();
     }
 
     public void setActiveAmiibo(String name, String tail) {
@@ -661,70 +336,4 @@ public class FlaskGattService extends Service {
     public void createBlankTag() {
         delayedTagCharacteristic("createBlank()");
     }
-
-    public static List<byte[]> byteToPortions(byte[] largeByteArray, int sizePerPortion) {
-        List<byte[]> byteArrayPortions = new ArrayList<>();
-        int offset = 0;
-        while (offset < largeByteArray.length) {
-            byte[] portion = Arrays.copyOfRange(largeByteArray, offset, offset + sizePerPortion);
-            offset += sizePerPortion;
-            byteArrayPortions.add(portion);
-        }
-        return byteArrayPortions;
-    }
-
-    public static List<String> stringToPortions(String largeString, int sizePerPortion) {
-        List<String> stringPortions = new ArrayList<>();
-        int size = largeString.length();
-        if (size <= sizePerPortion) {
-            stringPortions.add(largeString);
-        } else {
-            int index = 0;
-            while (index < size) {
-                stringPortions.add(largeString.substring(index,
-                        Math.min(index + sizePerPortion, largeString.length())));
-                index += sizePerPortion;
-            }
-        }
-        return stringPortions;
-    }
-
-    public static String stringToUnicode(String s) {
-        StringBuilder sb = new StringBuilder(s.length() * 3);
-        for (char c : s.toCharArray()) {
-            if (c < 256) {
-                sb.append(c);
-            } else {
-                String strHex = Integer.toHexString(c);
-                sb.append("\\u").append(strHex);
-            }
-        }
-        return sb.toString();
-    }
-
-    public boolean isJSONValid(String test) {
-        if (test.startsWith("tag.") && test.endsWith(")")) return false;
-        try {
-            new JSONObject(test);
-        } catch (JSONException ex) {
-            try {
-                new JSONArray(test);
-            } catch (JSONException jex) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private String getLogTag(UUID uuid) {
-        if (uuid.compareTo(FlaskTX) == 0) {
-            return "FlaskTX";
-        } else if (uuid.compareTo(FlaskRX) == 0) {
-            return "FlaskRX";
-        } else if (uuid.compareTo(FlaskNUS) == 0) {
-            return "FlaskNUS";
-        } else {
-            return uuid.toString();
-        }
-    }
 }
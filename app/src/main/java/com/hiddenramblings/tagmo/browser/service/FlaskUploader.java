@@ -0,0 +1,122 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Queues uploads of dumps to a Flask. Firmware that defines
+ * startBinaryUpload receives each dump as binary frames, and a dump it
+ * rejects is resent as Base64 text in tagUploadChunk calls.
+ */
+class FlaskUploader {
+
+    static final String BINARY_PROBE = "startBinaryUpload!==undefined";
+    private static final int SCRIPT_CHUNK_SIZE = 128;
+
+    private static class PendingUpload {
+        final byte[] amiiboData;
+        final String encoded;
+        final String name;
+
+        PendingUpload(byte[] amiiboData, String encoded, String name) {
+            this.amiiboData = amiiboData;
+            this.encoded = encoded;
+            this.name = name;
+        }
+    }
+
+    private final GattTransport transport;
+    private volatile boolean isBinaryUpload = false;
+    private final ArrayDeque<PendingUpload> pendingUploads = new ArrayDeque<>();
+
+    FlaskUploader(GattTransport transport) {
+        this.transport = transport;
+    }
+
+    boolean isBinaryUpload() {
+        return isBinaryUpload;
+    }
+
+    /**
+     * Asks the firmware whether it accepts binary uploads
+     */
+    void probe() {
+        transport.queueTagCommand(BINARY_PROBE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The calls that send a dump as Base64 text, which every firmware accepts
+     */
+    static List<String> getScriptCommands(int length, String encoded, String name) {
+        List<String> commands = new ArrayList<>();
+        commands.add("startTagUpload(" + length + ")");
+        for (String chunk : GattTransport.stringToPortions(encoded, SCRIPT_CHUNK_SIZE)) {
+            commands.add("tagUploadChunk(\"" + chunk + "\")");
+        }
+        commands.add("saveUploadedTag(\"" + name + "\")");
+        return commands;
+    }
+
+    /**
+     * Queues the upload of a dump, with the Base64 text of it in case the
+     * firmware takes only the text
+     */
+    void upload(byte[] amiiboData, String encoded, String name) {
+        if (!isBinaryUpload) {
+            transport.queueTagCommands(getScriptCommands(
+                    amiiboData.length, encoded, name), Integer.MAX_VALUE);
+            return;
+        }
+        synchronized (pendingUploads) {
+            pendingUploads.add(new PendingUpload(amiiboData, encoded, name));
+        }
+        int crc = BinaryUpload.crc16(amiiboData, 0, amiiboData.length);
+        transport.queueCommand(() -> {
+            transport.write(GattTransport.getTagCommand("startBinaryUpload("
+                    + amiiboData.length + "," + crc + ")"));
+            // Frames are queued behind the call, one frame per packet
+            transport.writeFrames(BinaryUpload.toFrames(
+                    amiiboData, transport.getQueue().getChunkSize()));
+        }, Integer.MAX_VALUE);
+        transport.queueTagCommand("finishBinaryUpload(\"" + name + "\")", Integer.MAX_VALUE);
+    }
+
+    /**
+     * Handles the answers to the probe and to finishBinaryUpload. It is
+     * called while the command answered is still in flight.
+     */
+    void onResponse(String response) {
+        if (response.startsWith("tag." + BINARY_PROBE)) {
+            isBinaryUpload = response.contains("=true");
+        } else if (response.startsWith("tag.finishBinaryUpload")) {
+            onBinaryUploadFinished(response.contains("=true"));
+        }
+    }
+
+    private void onBinaryUploadFinished(boolean verified) {
+        PendingUpload upload;
+        synchronized (pendingUploads) {
+            upload = pendingUploads.poll();
+        }
+        if (verified || null == upload) return;
+        // Later dumps use the command protocol for the rest of the connection
+        isBinaryUpload = false;
+        // Right behind finishBinaryUpload, which is still in flight
+        transport.queueTagCommands(getScriptCommands(
+                upload.amiiboData.length, upload.encoded, upload.name), 1);
+    }
+
+    void uploadsComplete() {
+        transport.queueTagCommands(
+                Arrays.asList("uploadsComplete()", "getList()"), Integer.MAX_VALUE);
+    }
+
+    void reset() {
+        isBinaryUpload = false;
+        synchronized (pendingUploads) {
+            pendingUploads.clear();
+        }
+    }
+}
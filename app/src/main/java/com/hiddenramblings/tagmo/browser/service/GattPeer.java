@@ -0,0 +1,19 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+import java.util.UUID;
+
+/**
+ * The GATT operations the queue submits to a connected device. Each call
+ * returns false if the operation could not be started, and its result is
+ * reported back through the matching GattQueue callback.
+ */
+interface GattPeer {
+
+    boolean writeCharacteristic(UUID characteristic, byte[] value, int writeType);
+
+    boolean writeDescriptor(UUID characteristic, UUID descriptor, byte[] value);
+
+    boolean readCharacteristic(UUID characteristic);
+
+    boolean requestMtu(int mtu);
+}
@@ -0,0 +1,294 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.UUID;
+
+/**
+ * Serialized GATT operations for a connection. Android runs one operation
+ * at a time, so each write, descriptor write, read or MTU request starts
+ * once the previous one is reported through its callback. Writes without
+ * response are reported when the stack has buffer credit for the next
+ * packet, so the rate follows the link instead of a fixed delay.
+ */
+class GattQueue {
+
+    static final int WRITE = 0;
+    static final int DESCRIPTOR = 1;
+    static final int READ = 2;
+    static final int MTU = 3;
+
+    private static final int MAX_RETRIES = 3;
+    private static final long RETRY_DELAY = 10L;
+    private static final long OPERATION_TIMEOUT = 1000L;
+    // Older stacks do not always report writes without response
+    private static final long NO_RESPONSE_TIMEOUT = 100L;
+    // A write carries the MTU less the ATT opcode and handle
+    private static final int ATT_HEADER = 3;
+    private static final int DEFAULT_CHUNK_SIZE = 20;
+
+    interface Listener {
+        /**
+         * An operation failed after every retry. For a characteristic write
+         * the writes queued behind it were dropped as well.
+         */
+        void onOperationDropped(int type);
+
+        /**
+         * A burst of writes drained from the queue
+         */
+        void onBurstComplete(int packets, int bytes, long elapsed, int retries, int dropped);
+    }
+
+    private static class Operation {
+        final int type;
+        final UUID characteristic;
+        final UUID descriptor;
+        final byte[] value;
+        // The write type of a write or the size of an MTU request
+        final int argument;
+        int attempts;
+        // Whether the stack accepted the operation on its last attempt
+        boolean submitted;
+
+        Operation(int type, UUID characteristic, UUID descriptor, byte[] value, int argument) {
+            this.type = type;
+            this.characteristic = characteristic;
+            this.descriptor = descriptor;
+            this.value = value;
+            this.argument = argument;
+        }
+
+        boolean isNoResponse() {
+            return type == WRITE
+                    && argument == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+        }
+    }
+
+    private final GattScheduler scheduler;
+    private final Listener listener;
+    private final ArrayDeque<Operation> operations = new ArrayDeque<>();
+    private volatile GattPeer peer;
+    private Operation current;
+    private volatile int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    // Counters for the current burst of writes, reported once it drains
+    private long burstStart;
+    private int burstPackets;
+    private int burstBytes;
+    private int burstRetries;
+    private int burstDropped;
+
+    private final Runnable start = this::start;
+
+    private final Runnable timeout = () -> {
+        if (null == current) return;
+        // A write without response was accepted when it was submitted
+        if (current.isNoResponse()) complete();
+        else retry();
+    };
+
+    GattQueue(GattScheduler scheduler, Listener listener) {
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the connection that later operations are submitted to
+     */
+    void setPeer(GattPeer peer) {
+        this.peer = peer;
+    }
+
+    void setMtu(int mtu) {
+        chunkSize = Math.max(DEFAULT_CHUNK_SIZE, mtu - ATT_HEADER);
+    }
+
+    /**
+     * The largest value that fits in a single packet of the connection
+     */
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    private void enqueue(Operation operation) {
+        scheduler.post(() -> {
+            operations.add(operation);
+            if (null == current) {
+                burstStart = scheduler.now();
+                next();
+            }
+        });
+    }
+
+    /**
+     * Queues a write and starts it if no other operation is in flight
+     */
+    void write(UUID characteristic, byte[] value, int writeType) {
+        if (null == characteristic) return;
+        enqueue(new Operation(WRITE, characteristic, null, value, writeType));
+    }
+
+    void writeDescriptor(UUID characteristic, UUID descriptor, byte[] value) {
+        if (null == characteristic) return;
+        enqueue(new Operation(DESCRIPTOR, characteristic, descriptor, value, 0));
+    }
+
+    void read(UUID characteristic) {
+        if (null == characteristic) return;
+        enqueue(new Operation(READ, characteristic, null, null, 0));
+    }
+
+    void requestMtu(int mtu) {
+        enqueue(new Operation(MTU, null, null, null, mtu));
+    }
+
+    void onCharacteristicWrite(UUID characteristic, boolean success) {
+        scheduler.post(() -> {
+            if (isCurrent(WRITE, characteristic)) onResult(success);
+        });
+    }
+
+    void onDescriptorWrite(UUID characteristic, boolean success) {
+        scheduler.post(() -> {
+            if (isCurrent(DESCRIPTOR, characteristic)) onResult(success);
+        });
+    }
+
+    void onCharacteristicRead(UUID characteristic, boolean success) {
+        scheduler.post(() -> {
+            if (isCurrent(READ, characteristic)) onResult(success);
+        });
+    }
+
+    /**
+     * A rejected MTU request leaves the default size, so it is not retried
+     */
+    void onMtuChanged() {
+        scheduler.post(() -> {
+            if (isCurrent(MTU, null)) onResult(true);
+        });
+    }
+
+    /**
+     * Drops every pending operation and the negotiated MTU, such as when
+     * the connection is lost
+     */
+    void clear() {
+        chunkSize = DEFAULT_CHUNK_SIZE;
+        scheduler.post(() -> {
+            scheduler.remove(start);
+            scheduler.remove(timeout);
+            operations.clear();
+            current = null;
+            resetMetrics();
+        });
+    }
+
+    /**
+     * A late callback for an earlier write must not complete an operation
+     * that is still waiting to be submitted
+     */
+    private boolean isCurrent(int type, UUID characteristic) {
+        return null != current && current.submitted && current.type == type
+                && (null == characteristic || characteristic.equals(current.characteristic));
+    }
+
+    private void onResult(boolean success) {
+        scheduler.remove(timeout);
+        if (success) complete();
+        else retry();
+    }
+
+    private void complete() {
+        if (current.type == WRITE) {
+            burstPackets += 1;
+            burstBytes += current.value.length;
+        }
+        next();
+    }
+
+    private void next() {
+        scheduler.remove(start);
+        scheduler.remove(timeout);
+        current = operations.poll();
+        if (null != current) start();
+        else reportMetrics();
+    }
+
+    private void reportMetrics() {
+        if (0 == burstPackets + burstDropped) return;
+        if (null != listener) listener.onBurstComplete(burstPackets, burstBytes,
+                Math.max(1L, scheduler.now() - burstStart), burstRetries, burstDropped);
+        resetMetrics();
+    }
+
+    private void resetMetrics() {
+        burstPackets = 0;
+        burstBytes = 0;
+        burstRetries = 0;
+        burstDropped = 0;
+    }
+
+    private boolean submit(GattPeer peer, Operation operation) {
+        switch (operation.type) {
+            case WRITE:
+                return peer.writeCharacteristic(
+                        operation.characteristic, operation.value, operation.argument);
+            case DESCRIPTOR:
+                return peer.writeDescriptor(
+                        operation.characteristic, operation.descriptor, operation.value);
+            case READ:
+                return peer.readCharacteristic(operation.characteristic);
+            case MTU:
+                return peer.requestMtu(operation.argument);
+            default:
+                return false;
+        }
+    }
+
+    private void start() {
+        if (null == current) return;
+        GattPeer peer = this.peer;
+        current.submitted = null != peer && submit(peer, current);
+        if (current.submitted) {
+            scheduler.postDelayed(timeout, current.isNoResponse()
+                    ? NO_RESPONSE_TIMEOUT : OPERATION_TIMEOUT);
+        } else {
+            // The stack is still busy with another operation
+            retry();
+        }
+    }
+
+    private void retry() {
+        current.submitted = false;
+        current.attempts += 1;
+        if (current.attempts > MAX_RETRIES) {
+            drop();
+            return;
+        }
+        if (current.type == WRITE) burstRetries += 1;
+        scheduler.postDelayed(start, RETRY_DELAY << current.attempts);
+    }
+
+    /**
+     * A write that never went through leaves the command it belongs to
+     * incomplete, so the writes queued behind it are not sent either
+     */
+    private void drop() {
+        int type = current.type;
+        if (type == WRITE) {
+            burstDropped += 1;
+            for (Iterator<Operation> iterator = operations.iterator(); iterator.hasNext(); ) {
+                if (iterator.next().type == WRITE) {
+                    iterator.remove();
+                    burstDropped += 1;
+                }
+            }
+        }
+        next();
+        if (null != listener) listener.onOperationDropped(type);
+    }
+}
@@ -0,0 +1,18 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+/**
+ * Runs the work of a GattQueue in order on a single thread
+ */
+interface GattScheduler {
+
+    void post(Runnable runnable);
+
+    void postDelayed(Runnable runnable, long delayMillis);
+
+    void remove(Runnable runnable);
+
+    /**
+     * Milliseconds from a fixed point, used to time bursts of writes
+     */
+    long now();
+}
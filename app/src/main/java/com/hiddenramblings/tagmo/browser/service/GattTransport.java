@@ -0,0 +1,153 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.hiddenramblings.tagmo.eightbit.charset.CharsetCompat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Commands sent to a device over a GattQueue, one at a time. The first
+ * command is the one in flight and the next starts once the device
+ * answers it, or once its writes were dropped.
+ */
+class GattTransport {
+
+    private final GattQueue queue;
+    private final ArrayList<Runnable> commands = new ArrayList<>();
+    private volatile UUID characteristicTX;
+
+    GattTransport(GattQueue queue) {
+        this.queue = queue;
+    }
+
+    GattQueue getQueue() {
+        return queue;
+    }
+
+    void setCharacteristicTX(UUID characteristic) {
+        this.characteristicTX = characteristic;
+    }
+
+    /**
+     * Writes the value in chunks that fit a packet of the connection
+     */
+    void write(byte[] value) {
+        for (byte[] chunk : byteToPortions(value, queue.getChunkSize())) {
+            queue.write(characteristicTX, chunk,
+                    BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        }
+    }
+
+    /**
+     * Writes each frame in a packet of its own
+     */
+    void writeFrames(List<byte[]> frames) {
+        for (byte[] frame : frames) {
+            queue.write(characteristicTX, frame,
+                    BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        }
+    }
+
+    /**
+     * Queues a command at the index, or at the end if it is past the end.
+     * Nothing goes ahead of the command in flight.
+     */
+    void queueCommand(Runnable command, int index) {
+        Runnable next;
+        synchronized (commands) {
+            commands.add(Math.max(Math.min(index, commands.size()),
+                    commands.isEmpty() ? 0 : 1), command);
+            next = commands.size() == 1 ? commands.get(0) : null;
+        }
+        if (null != next) next.run();
+    }
+
+    /**
+     * Queues the commands in order, starting at the index
+     */
+    void queueCommands(List<Runnable> commands, int index) {
+        for (Runnable command : commands) {
+            queueCommand(command, index);
+            if (index < Integer.MAX_VALUE) index += 1;
+        }
+    }
+
+    static List<byte[]> byteToPortions(byte[] largeByteArray, int sizePerPortion) {
+        List<byte[]> byteArrayPortions = new ArrayList<>();
+        int offset = 0;
+        while (offset < largeByteArray.length) {
+            byte[] portion = Arrays.copyOfRange(largeByteArray, offset,
+                    Math.min(offset + sizePerPortion, largeByteArray.length));
+            offset += sizePerPortion;
+            byteArrayPortions.add(portion);
+        }
+        return byteArrayPortions;
+    }
+
+    static List<String> stringToPortions(String largeString, int sizePerPortion) {
+        List<String> stringPortions = new ArrayList<>();
+        int size = largeString.length();
+        if (size <= sizePerPortion) {
+            stringPortions.add(largeString);
+        } else {
+            int index = 0;
+            while (index < size) {
+                stringPortions.add(largeString.substring(index,
+                        Math.min(index + sizePerPortion, largeString.length())));
+                index += sizePerPortion;
+            }
+        }
+        return stringPortions;
+    }
+
+    static byte[] getTagCommand(String value) {
+        return ("tag." + value + "\n").getBytes(CharsetCompat.UTF_8);
+    }
+
+    void queueTagCommand(String value, int index) {
+        queueCommand(() -> write(getTagCommand(value)), index);
+    }
+
+    void queueTagCommands(List<String> values, int index) {
+        ArrayList<Runnable> tagCommands = new ArrayList<>(values.size());
+        for (String value : values) {
+            tagCommands.add(() -> write(getTagCommand(value)));
+        }
+        queueCommands(tagCommands, index);
+    }
+
+    int getCommandCount() {
+        synchronized (commands) {
+            return commands.size();
+        }
+    }
+
+    /**
+     * Starts the next queued command once the device answered the one in
+     * flight
+     */
+    void onCommandComplete() {
+        Runnable next;
+        synchronized (commands) {
+            if (commands.isEmpty()) return;
+            commands.remove(0);
+            next = commands.isEmpty() ? null : commands.get(0);
+        }
+        if (null != next) next.run();
+    }
+
+    /**
+     * Drops every command and pending operation, such as when the
+     * connection is lost
+     */
+    void clear() {
+        synchronized (commands) {
+            commands.clear();
+        }
+        queue.clear();
+    }
+}
@@ -0,0 +1,505 @@
+/* ====================================================================
+ * Copyright (c) 2012-2022 AbandonedCart.  All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * For the purpose of this license, the phrase "TagMo labels" shall
+ * be used to refer to the labels "8-Bit Dream", "TwistedUmbrella",
+ * "TagMo" and "AbandonedCart" and these labels should be considered
+ * the equivalent of any usage of the aforementioned phrase.
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in
+ *    the documentation and/or other materials provided with the
+ *    distribution.
+ *
+ * 3. All materials mentioning features or use of this software and
+ *    redistributions of any form whatsoever must display the following
+ *    acknowledgment unless made available by tagged, public "commits":
+ *    "This product includes software developed for TagMo by AbandonedCart"
+ *
+ * 4. The TagMo labels must not be used in any form to endorse or promote
+ *    products derived from this software without prior written permission.
+ *    For written permission, please contact enderinexiledc@gmail.com
+ *
+ * 5. Products derived from this software may not be called by the TagMo labels
+ *    nor may these labels appear in their names or product information without
+ *    prior written permission of AbandonedCart.
+ *
+ * THIS SOFTWARE IS PROVIDED BY AbandonedCart AND TagMo ``AS IS'' AND ANY
+ * EXPRESSED OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED.  IN NO EVENT SHALL THE OpenSSL PROJECT OR
+ * ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * ====================================================================
+ *
+ * The license and distribution terms for any publicly available version or
+ * derivative of this code cannot be changed.  i.e. this code cannot simply be
+ * copied and put under another distribution license
+ * [including the GNU Public License.] Content not subject to these terms is
+ * subject to to the terms and conditions of the Apache License, Version 2.0.
+ *
+ * Bluup Labs and its members are exempt from the above license requirements.
+ */
+
+package com.hiddenramblings.tagmo.browser.service;
+
+import android.annotation.SuppressLint;
+import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import com.hiddenramblings.tagmo.eightbit.io.Debug;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Connection, discovery, notification setup and paced writes shared by the
+ * GATT services of each device, which only add their UUIDs and protocol.
+ * Operations reach the device through a GattPeer, so the queue and the
+ * command transport run without a BluetoothGatt in tests.
+ */
+@RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
+@SuppressLint("MissingPermission")
+public abstract class GattTransportService extends Service {
+
+    final Class<?> TAG = getClass();
+
+    private final GattQueue.Listener queueListener = new GattQueue.Listener() {
+        @Override
+        public void onOperationDropped(int type) {
+            Debug.Warn(TAG, "GATT operation " + type + " dropped after retries");
+            // A command that was only partly sent will not be answered
+            if (type == GattQueue.WRITE) transport.onCommandComplete();
+        }
+
+        @Override
+        public void onBurstComplete(
+                int packets, int bytes, long elapsed, int retries, int dropped
+        ) {
+            Debug.Verbose(TAG, "GATT burst: " + packets + " packets, " + bytes
+                    + " bytes in " + elapsed + " ms (" + (bytes * 1000L / elapsed)
+                    + " B/s), " + retries + " retries, " + dropped + " dropped");
+        }
+    };
+    final GattQueue gattQueue = new GattQueue(new HandlerScheduler(), queueListener);
+    final GattTransport transport = new GattTransport(gattQueue);
+    private AndroidGattPeer gattPeer;
+
+    private ConnectionListener connectionListener;
+
+    private BluetoothManager mBluetoothManager;
+    private BluetoothAdapter mBluetoothAdapter;
+    private String mBluetoothDeviceAddress;
+    BluetoothGatt mBluetoothGatt;
+
+    BluetoothGattCharacteristic mCharacteristicRX = null;
+    BluetoothGattCharacteristic mCharacteristicTX = null;
+
+    public interface ConnectionListener {
+        void onServicesDiscovered();
+        void onGattConnectionLost();
+    }
+
+    void setConnectionListener(ConnectionListener listener) {
+        this.connectionListener = listener;
+    }
+
+    abstract String getDeviceName();
+
+    abstract UUID getServiceUUID();
+
+    abstract UUID getCharacteristicUUIDTX();
+
+    abstract UUID getCharacteristicUUIDRX();
+
+    /**
+     * Receives each value read or notified from the device
+     */
+    void onCharacteristicValue(BluetoothGattCharacteristic characteristic, byte[] data) { }
+
+    /**
+     * Drops the protocol state of a connection that was lost
+     */
+    void onConnectionLost() { }
+
+    private void getCharacteristicValue(BluetoothGattCharacteristic characteristic) {
+        final byte[] data = characteristic.getValue();
+        if (data != null && data.length > 0) {
+            Debug.Verbose(TAG, getLogTag(characteristic.getUuid()) + " " + new String(data));
+            onCharacteristicValue(characteristic, data);
+        }
+    }
+
+    // Implements callback methods for GATT events that the app cares about.  For example,
+    // connection change and services discovered.
+    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                gattPeer = new AndroidGattPeer(gatt);
+                gattQueue.setPeer(gattPeer);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+                    gatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                    gatt.setPreferredPhy(BluetoothDevice.PHY_LE_2M_MASK,
+                            BluetoothDevice.PHY_LE_2M_MASK, BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+                mBluetoothGatt.discoverServices();
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                transport.clear();
+                onConnectionLost();
+                if (null != connectionListener) connectionListener.onGattConnectionLost();
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+                    gattQueue.requestMtu(512); // Maximum: 517
+                else if (null != connectionListener) connectionListener.onServicesDiscovered();
+            } else {
+                Debug.Warn(TAG, "onServicesDiscovered received: " + status);
+            }
+        }
+
+        @Override
+        public void onCharacteristicRead(
+                BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status
+        ) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                getCharacteristicValue(characteristic);
+            }
+            gattQueue.onCharacteristicRead(characteristic.getUuid(),
+                    status == BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void onCharacteristicWrite(
+                BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status
+        ) {
+            Debug.Verbose(TAG, getLogTag(characteristic.getUuid())
+                    + " onCharacteristicWrite " + status);
+            gattQueue.onCharacteristicWrite(characteristic.getUuid(),
+                    status == BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void onDescriptorWrite(
+                BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status
+        ) {
+            gattQueue.onDescriptorWrite(descriptor.getCharacteristic().getUuid(),
+                    status == BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void onCharacteristicChanged(
+                BluetoothGatt gatt, BluetoothGattCharacteristic characteristic
+        ) {
+            getCharacteristicValue(characteristic);
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                Debug.Verbose(TAG, "onMtuChange complete: " + mtu);
+                gattQueue.setMtu(mtu);
+            } else {
+                Debug.Warn(TAG, "onMtuChange received: " + status);
+            }
+            gattQueue.onMtuChanged();
+            if (null != connectionListener) connectionListener.onServicesDiscovered();
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            Debug.Verbose(TAG, "onPhyUpdate TX " + txPhy + " RX " + rxPhy + " " + status);
+        }
+    };
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        // After using a given device, you should make sure that BluetoothGatt.close() is called
+        // such that resources are cleaned up properly.  In this particular example, close() is
+        // invoked when the UI is disconnected from the Service.
+        if (mBluetoothGatt == null) {
+            return super.onUnbind(intent);
+        }
+        mBluetoothGatt.close();
+        mBluetoothGatt = null;
+        return super.onUnbind(intent);
+    }
+
+    /**
+     * Initializes a reference to the local Bluetooth adapter.
+     *
+     * @return Return true if the initialization is successful.
+     */
+    public boolean initialize() {
+        // For API level 18 and above, get a reference to BluetoothAdapter through BluetoothManager.
+        if (mBluetoothManager == null) {
+            mBluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+            if (mBluetoothManager == null) {
+                return false;
+            }
+        }
+
+        mBluetoothAdapter = mBluetoothManager.getAdapter();
+        return mBluetoothAdapter != null;
+    }
+
+    /**
+     * Connects to the GATT server hosted on the Bluetooth LE device.
+     *
+     * @param address The device address of the destination device.
+     * @return Return true if the connection is initiated successfully. The connection result
+     * is reported asynchronously through the
+     * {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
+     * callback.
+     */
+    public boolean connect(final String address) {
+        if (mBluetoothAdapter == null || address == null) {
+            return false;
+        }
+
+        // Previously connected device.  Try to reconnect.
+        if (address.equals(mBluetoothDeviceAddress) && mBluetoothGatt != null) {
+            return mBluetoothGatt.connect();
+        }
+
+        final BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
+        if (device == null) {
+            return false;
+        }
+        // We want to directly connect to the device, so we are setting the autoConnect
+        // parameter to false.
+        mBluetoothGatt = device.connectGatt(this, false, mGattCallback);
+        mBluetoothDeviceAddress = address;
+        return true;
+    }
+
+    /**
+     * Disconnects an existing connection or cancel a pending connection. The disconnection result
+     * is reported asynchronously through the
+     * {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
+     * callback.
+     */
+    public void disconnect() {
+        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+            return;
+        }
+        mBluetoothGatt.disconnect();
+    }
+
+    private void setResponseDescriptors(BluetoothGattCharacteristic characteristic) {
+        if (null == characteristic) return;
+        UUID descriptorTX = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+        gattQueue.writeDescriptor(characteristic.getUuid(), descriptorTX,
+                BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        gattQueue.writeDescriptor(characteristic.getUuid(), descriptorTX,
+                BluetoothGattDescriptor.ENABLE_INDICATION_VALUE);
+    }
+
+    /**
+     * Enables or disables notification on a give characteristic.
+     *
+     * @param characteristic Characteristic to act on.
+     * @param enabled        If true, enable notification.  False otherwise.
+     */
+    public void setCharacteristicNotification(
+            BluetoothGattCharacteristic characteristic, boolean enabled) {
+        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+            return;
+        }
+        mBluetoothGatt.setCharacteristicNotification(characteristic, enabled);
+        setResponseDescriptors(characteristic);
+    }
+
+    /**
+     * Retrieves a list of supported GATT services on the connected device. This should be
+     * invoked only after {@code BluetoothGatt#discoverServices()} completes successfully.
+     *
+     * @return A {@code List} of supported services.
+     */
+    public List<BluetoothGattService> getSupportedGattServices() {
+        if (mBluetoothGatt == null) return null;
+
+        return mBluetoothGatt.getServices();
+    }
+
+    public BluetoothGattCharacteristic getCharacteristicRX(BluetoothGattService mCustomService) {
+        BluetoothGattCharacteristic mReadCharacteristic =
+                mCustomService.getCharacteristic(getCharacteristicUUIDRX());
+        if (null == mReadCharacteristic) {
+            for (BluetoothGattCharacteristic customRead : mCustomService.getCharacteristics()) {
+                UUID customUUID = customRead.getUuid();
+                /*get the read characteristic from the service*/
+                if (customUUID.compareTo(getCharacteristicUUIDRX()) == 0) {
+                    Debug.Verbose(TAG, "GattReadCharacteristic: " + customUUID);
+                    mReadCharacteristic = mCustomService.getCharacteristic(customUUID);
+                    break;
+                }
+            }
+        }
+        if (null != mReadCharacteristic) {
+            if (null != gattPeer) gattPeer.register(mReadCharacteristic);
+            gattQueue.read(mReadCharacteristic.getUuid());
+        }
+        return mReadCharacteristic;
+    }
+
+    void setCharacteristicRX() throws UnsupportedOperationException {
+        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+            throw new UnsupportedOperationException();
+        }
+
+        BluetoothGattService mCustomService = mBluetoothGatt.getService(getServiceUUID());
+        /*check if the service is available on the device*/
+        if (null == mCustomService) {
+            List<BluetoothGattService> services = getSupportedGattServices();
+            if (null == services || services.isEmpty()) {
+                throw new UnsupportedOperationException();
+            }
+
+            for (BluetoothGattService customService : services) {
+                Debug.Verbose(TAG, "GattReadService: " + customService.getUuid().toString());
+                /*get the read characteristic from the service*/
+                mCharacteristicRX = getCharacteristicRX(customService);
+                break;
+            }
+        } else {
+            mCharacteristicRX = getCharacteristicRX(mCustomService);
+        }
+        setCharacteristicNotification(mCharacteristicRX, true);
+    }
+
+    public BluetoothGattCharacteristic getCharacteristicTX(BluetoothGattService mCustomService) {
+        BluetoothGattCharacteristic mWriteCharacteristic =
+                mCustomService.getCharacteristic(getCharacteristicUUIDTX());
+        if (null == mWriteCharacteristic) {
+            for (BluetoothGattCharacteristic customWrite : mCustomService.getCharacteristics()) {
+                UUID customUUID = customWrite.getUuid();
+                /*get the write characteristic from the service*/
+                if (customUUID.compareTo(getCharacteristicUUIDTX()) == 0) {
+                    Debug.Verbose(TAG, "GattWriteCharacteristic: " + customUUID);
+                    mWriteCharacteristic = mCustomService.getCharacteristic(customUUID);
+                    break;
+                }
+            }
+        }
+        if (null != mWriteCharacteristic && null != gattPeer)
+            gattPeer.register(mWriteCharacteristic);
+        return mWriteCharacteristic;
+    }
+
+    void setCharacteristicTX() throws UnsupportedOperationException {
+        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+            throw new UnsupportedOperationException();
+        }
+
+        BluetoothGattService mCustomService = mBluetoothGatt.getService(getServiceUUID());
+        /*check if the service is available on the device*/
+        if (null == mCustomService) {
+            List<BluetoothGattService> services = getSupportedGattServices();
+            if (null == services || services.isEmpty()) {
+                throw new UnsupportedOperationException();
+            }
+
+            for (BluetoothGattService customService : services) {
+                Debug.Verbose(TAG, "GattWriteService: " + customService.getUuid().toString());
+                /*get the write characteristic from the service*/
+                mCharacteristicTX = getCharacteristicTX(customService);
+            }
+        } else {
+            mCharacteristicTX = getCharacteristicTX(mCustomService);
+        }
+        if (null != mCharacteristicTX) transport.setCharacteristicTX(mCharacteristicTX.getUuid());
+        setCharacteristicNotification(mCharacteristicTX, true);
+    }
+
+    void checkCharacteristicTX() {
+        if (null == mCharacteristicTX) {
+            try {
+                setCharacteristicTX();
+            } catch (UnsupportedOperationException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    void queueCallback(Runnable callback, int index) {
+        checkCharacteristicTX();
+        transport.queueCommand(callback, index);
+    }
+
+    /**
+     * Starts the next queued command once the device answered the one in
+     * flight
+     */
+    void onCommandComplete() {
+        transport.onCommandComplete();
+    }
+
+    public void queueTagCharacteristic(String value, int index) {
+        checkCharacteristicTX();
+        transport.queueTagCommand(value, index);
+    }
+
+    public void delayedTagCharacteristic(String value) {
+        queueTagCharacteristic(value, Integer.MAX_VALUE);
+    }
+
+    public void promptTagCharacteristic(String value) {
+        queueTagCharacteristic(value, 0);
+    }
+
+    public static String stringToUnicode(String s) {
+        StringBuilder sb = new StringBuilder(s.length() * 3);
+        for (char c : s.toCharArray()) {
+            if (c < 256) {
+                sb.append(c);
+            } else {
+                String strHex = Integer.toHexString(c);
+                sb.append("\\u").append(strHex);
+            }
+        }
+        return sb.toString();
+    }
+
+    String getLogTag(UUID uuid) {
+        if (uuid.compareTo(getCharacteristicUUIDTX()) == 0) {
+            return getDeviceName() + "TX";
+        } else if (uuid.compareTo(getCharacteristicUUIDRX()) == 0) {
+            return getDeviceName() + "RX";
+        } else if (uuid.compareTo(getServiceUUID()) == 0) {
+            return getDeviceName() + "NUS";
+        } else {
+            return uuid.toString();
+        }
+    }
+}
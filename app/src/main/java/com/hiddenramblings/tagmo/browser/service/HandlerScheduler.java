@@ -0,0 +1,30 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+class HandlerScheduler implements GattScheduler {
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void post(Runnable runnable) {
+        handler.post(runnable);
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMillis) {
+        handler.postDelayed(runnable, delayMillis);
+    }
+
+    @Override
+    public void remove(Runnable runnable) {
+        handler.removeCallbacks(runnable);
+    }
+
+    @Override
+    public long now() {
+        return SystemClock.elapsedRealtime();
+    }
+}
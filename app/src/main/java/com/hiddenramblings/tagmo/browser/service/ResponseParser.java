@@ -0,0 +1,99 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+/**
+ * Splits the console output of an Espruino based device into complete
+ * responses in a single pass over each notification. A response ends at a
+ * prompt that starts a line outside of a string, or when a JSON object or
+ * array printed on its own closes. Line feeds are dropped, while carriage
+ * returns and the prompt are kept where they were, so each response has
+ * the shape the handlers slice and is handled exactly once.
+ */
+class ResponseParser {
+
+    interface Listener {
+        void onResponse(String response);
+    }
+
+    private final Listener listener;
+    private final StringBuilder buffer = new StringBuilder();
+    private int depth;
+    private char quote;
+    private boolean escaped;
+    private boolean lineStart = true;
+    private boolean hasContent;
+    private boolean isJson;
+
+    ResponseParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    void append(String output) {
+        for (int i = 0; i < output.length(); i++) {
+            char c = output.charAt(i);
+            if (c == '\n' || c == '\r') {
+                // Strings are never continued on the next line of output
+                quote = 0;
+                escaped = false;
+                lineStart = true;
+                if (c == '\r') buffer.append(c);
+                continue;
+            }
+            if (0 != quote) {
+                buffer.append(c);
+                if (escaped) escaped = false;
+                else if (c == '\\') escaped = true;
+                else if (c == quote) quote = 0;
+                continue;
+            }
+            if (c == '>' && lineStart) {
+                emit(true);
+                continue;
+            }
+            lineStart = false;
+            buffer.append(c);
+            switch (c) {
+                case '"':
+                case '\'':
+                    quote = c;
+                    break;
+                case '{':
+                case '[':
+                    if (!hasContent) isJson = true;
+                    depth += 1;
+                    break;
+                case '}':
+                case ']':
+                    if (depth > 0) depth -= 1;
+                    if (depth == 0 && isJson) {
+                        emit(false);
+                        continue;
+                    }
+                    break;
+            }
+            if (!Character.isWhitespace(c)) hasContent = true;
+        }
+    }
+
+    void reset() {
+        buffer.setLength(0);
+        depth = 0;
+        quote = 0;
+        escaped = false;
+        lineStart = true;
+        hasContent = false;
+        isJson = false;
+    }
+
+    private void emit(boolean prompt) {
+        String response = null;
+        if (hasContent) {
+            // Only leading space is dropped, the line ending before a prompt is kept
+            int start = 0;
+            while (buffer.charAt(start) <= ' ') start += 1;
+            response = buffer.substring(start) + (prompt ? ">" : "");
+        }
+        reset();
+        lineStart = false;
+        if (null != response) listener.onResponse(response);
+    }
+}
@@ -18,7 +18,7 @@ public class CharsetCompat {
             : Charset.forName("ISO-8859-1");
     public static Charset US_ASCII = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
             ? StandardCharsets.US_ASCII
-            : Charset.forName("US_ASCII");
+            : Charset.forName("US-ASCII");
     public static Charset UTF_16BE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
             ? StandardCharsets.UTF_16BE
             : Charset.forName("UTF-16BE");
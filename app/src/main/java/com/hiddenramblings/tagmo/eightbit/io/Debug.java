@@ -67,6 +67,7 @@ import com.heinrichreimersoftware.androidissuereporter.IssueReporterLauncher;
 import com.hiddenramblings.tagmo.BuildConfig;
 import com.hiddenramblings.tagmo.R;
 import com.hiddenramblings.tagmo.TagMo;
+import com.hiddenramblings.tagmo.nfctech.TransceiveStats;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -276,6 +277,14 @@ public class Debug {
         submitLogcat(context, log.toString());
     }
 
+    public static void processNfcMetrics(Context context) {
+        String separator = System.getProperty("line.separator") != null
+                ? Objects.requireNonNull(System.getProperty("line.separator")) : "\n";
+        final StringBuilder log = getDeviceProfile(context);
+        log.append(separator).append(separator).append(TransceiveStats.getReport(separator));
+        submitLogcat(context, log.toString());
+    }
+
     public static boolean processLogcat(Context context) throws IOException {
         String project = context.getString(R.string.tagmo);
         String username = "HiddenRamblings";
@@ -296,6 +305,8 @@ public class Debug {
             log.append(line).append(separator);
         }
         reader.close();
+        if (TransceiveStats.hasSessions())
+            log.append(separator).append(TransceiveStats.getReport(separator));
         String logText = log.toString();
 
         if (!logText.contains("AndroidRuntime")) {
@@ -0,0 +1,86 @@
+package com.hiddenramblings.tagmo.nfctech;
+
+import android.nfc.Tag;
+import android.nfc.tech.MifareUltralight;
+import android.nfc.tech.NfcA;
+
+import java.io.IOException;
+
+/**
+ * Transport over the NfcA or MifareUltralight technology of a discovered tag
+ */
+public class AndroidTransport implements TagTransport {
+
+    private final MifareUltralight m_mifare;
+    private final NfcA m_nfcA;
+
+    public AndroidTransport(NfcA nfcA) {
+        m_nfcA = nfcA;
+        m_mifare = null;
+    }
+
+    public AndroidTransport(MifareUltralight mifare) {
+        m_nfcA = null;
+        m_mifare = mifare;
+    }
+
+    @Override
+    public String getName() {
+        return null != m_mifare ? "MifareUltralight" : "NfcA";
+    }
+
+    @Override
+    public Tag getTag() {
+        return null != m_mifare ? m_mifare.getTag() : m_nfcA.getTag();
+    }
+
+    @Override
+    public byte[] getId() {
+        return getTag().getId();
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return null != m_mifare
+                ? m_mifare.getMaxTransceiveLength() : m_nfcA.getMaxTransceiveLength();
+    }
+
+    @Override
+    public int getTimeout() {
+        return null != m_mifare ? m_mifare.getTimeout() : m_nfcA.getTimeout();
+    }
+
+    @Override
+    public void setTimeout(int timeout) {
+        if (null != m_mifare)
+            m_mifare.setTimeout(timeout);
+        else
+            m_nfcA.setTimeout(timeout);
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (null != m_mifare)
+            m_mifare.connect();
+        else
+            m_nfcA.connect();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null != m_mifare)
+            m_mifare.close();
+        else
+            m_nfcA.close();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return null != m_mifare ? m_mifare.isConnected() : m_nfcA.isConnected();
+    }
+
+    @Override
+    public byte[] transceive(byte[] data) throws IOException {
+        return null != m_mifare ? m_mifare.transceive(data) : m_nfcA.transceive(data);
+    }
+}
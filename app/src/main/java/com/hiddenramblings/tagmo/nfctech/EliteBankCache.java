@@ -0,0 +1,184 @@
+package com.hiddenramblings.tagmo.nfctech;
+
+import com.hiddenramblings.tagmo.TagMo;
+import com.hiddenramblings.tagmo.eightbit.io.Debug;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Bank titles and validated bank dumps of each N2 Elite, keyed by its
+ * signature and kept across launches. A dump is only returned while the
+ * fingerprint pages of the bank (write counter, tag hash and amiibo id)
+ * still match those on the device. Changes are written once the
+ * connection to the device is closed.
+ */
+public class EliteBankCache {
+
+    private static final int VERSION = 1;
+    // Pages 0x04 to 0x16
+    static final int FINGERPRINT_START = 0x04;
+    static final int FINGERPRINT_END = 0x16;
+    private static final int TITLE_OFFSET = 0x15 * NfcByte.PAGE_SIZE;
+    private static final int TITLE_LENGTH = 8;
+
+    private static final HashMap<String, EliteBankCache> caches = new HashMap<>();
+
+    private final File file;
+    private final ArrayList<String> titles = new ArrayList<>();
+    private final HashMap<Integer, byte[]> banks = new HashMap<>();
+    private boolean changed;
+
+    private EliteBankCache(File file) {
+        this.file = file;
+    }
+
+    private static File getDirectory() {
+        return new File(TagMo.getContext().getFilesDir(), "Elite");
+    }
+
+    /**
+     * Returns the cache for the device with this signature, or null if the
+     * signature is not known
+     */
+    public static EliteBankCache get(String signature) {
+        if (null == signature || signature.isEmpty()) return null;
+        synchronized (caches) {
+            EliteBankCache cache = caches.get(signature);
+            if (null == cache) {
+                cache = new EliteBankCache(new File(getDirectory(), signature + ".bin"));
+                cache.load();
+                caches.put(signature, cache);
+            }
+            return cache;
+        }
+    }
+
+    public static EliteBankCache get(NTAG215 tag) {
+        return get(TagReader.getTagSignature(tag));
+    }
+
+    public synchronized ArrayList<String> getTitles() {
+        return new ArrayList<>(titles);
+    }
+
+    /**
+     * Replaces the bank titles and drops every dump whose title changed
+     */
+    public synchronized void setTitles(ArrayList<String> titles) {
+        if (null == titles) return;
+        this.titles.clear();
+        this.titles.addAll(titles);
+        for (Integer bank : new ArrayList<>(banks.keySet())) {
+            if (bank >= titles.size() || !titles.get(bank).equals(getTitle(banks.get(bank))))
+                banks.remove(bank);
+        }
+        changed = true;
+    }
+
+    private static String getTitle(byte[] tagData) {
+        return TagUtils.bytesToHex(Arrays.copyOfRange(
+                tagData, TITLE_OFFSET, TITLE_OFFSET + TITLE_LENGTH));
+    }
+
+    private static byte[] getFingerprint(byte[] tagData) {
+        return Arrays.copyOfRange(tagData, FINGERPRINT_START * NfcByte.PAGE_SIZE,
+                (FINGERPRINT_END + 1) * NfcByte.PAGE_SIZE);
+    }
+
+    /**
+     * Returns the cached dump of the bank if it matches the fingerprint
+     * pages read from the device, otherwise null
+     */
+    public synchronized byte[] getBankData(int bank, byte[] fingerprint) {
+        byte[] tagData = banks.get(bank);
+        if (null == tagData || null == fingerprint) return null;
+        if (!Arrays.equals(getFingerprint(tagData), fingerprint)) {
+            banks.remove(bank);
+            changed = true;
+            return null;
+        }
+        return tagData.clone();
+    }
+
+    public synchronized void putBankData(int bank, byte[] tagData) {
+        if (null == tagData || tagData.length < NfcByte.TAG_FILE_SIZE) return;
+        banks.put(bank, Arrays.copyOf(tagData, NfcByte.TAG_FILE_SIZE));
+        if (bank < titles.size()) titles.set(bank, getTitle(tagData));
+        changed = true;
+    }
+
+    public synchronized void invalidate(int bank) {
+        if (null != banks.remove(bank)) changed = true;
+    }
+
+    public synchronized void invalidateAll() {
+        banks.clear();
+        changed = true;
+    }
+
+    /**
+     * Writes the caches that changed since the last commit
+     */
+    public static void commitAll() {
+        synchronized (caches) {
+            for (EliteBankCache cache : caches.values()) {
+                cache.commit();
+            }
+        }
+    }
+
+    private synchronized void commit() {
+        if (!changed) return;
+        changed = false;
+        save();
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            if (input.readInt() != VERSION) return;
+            int titleCount = input.readInt();
+            for (int i = 0; i < titleCount; i++) {
+                titles.add(input.readUTF());
+            }
+            int bankCount = input.readInt();
+            for (int i = 0; i < bankCount; i++) {
+                int bank = input.readInt();
+                byte[] tagData = new byte[NfcByte.TAG_FILE_SIZE];
+                input.readFully(tagData);
+                banks.put(bank, tagData);
+            }
+        } catch (IOException e) {
+            Debug.Warn(e);
+            titles.clear();
+            banks.clear();
+        }
+    }
+
+    private void save() {
+        File directory = file.getParentFile();
+        if (null != directory && !directory.exists() && !directory.mkdirs()) return;
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+            output.writeInt(VERSION);
+            output.writeInt(titles.size());
+            for (String title : titles) {
+                output.writeUTF(title);
+            }
+            output.writeInt(banks.size());
+            for (Integer bank : banks.keySet()) {
+                output.writeInt(bank);
+                output.write(banks.get(bank));
+            }
+        } catch (IOException e) {
+            Debug.Warn(e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.hiddenramblings.tagmo.nfctech;
+
+import com.hiddenramblings.tagmo.R;
+import com.hiddenramblings.tagmo.TagMo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+
+/**
+ * The N2 Elite firmware APDU script, parsed once into the raw commands to
+ * send
+ */
+class FirmwareScript {
+
+    private static FirmwareScript compiled;
+
+    private final byte[][] commands;
+
+    private FirmwareScript(byte[][] commands) {
+        this.commands = commands;
+    }
+
+    static synchronized FirmwareScript get() throws IOException {
+        if (null == compiled) compiled = compile();
+        return compiled;
+    }
+
+    /**
+     * Compiles the script ahead of a tag being presented
+     */
+    static void preload() {
+        try {
+            get();
+        } catch (IOException ignored) { }
+    }
+
+    /**
+     * The commands up to the first malformed one
+     */
+    byte[][] getCommands() {
+        return commands;
+    }
+
+    private static byte[] parseBytes(String[] parts) {
+        byte[] bytes = new byte[parts.length - 1];
+        for (int i = 1; i < parts.length; i++) {
+            bytes[i - 1] = (byte) Integer.parseInt(parts[i], 16);
+        }
+        return bytes;
+    }
+
+    private static FirmwareScript compile() throws IOException {
+        ArrayList<byte[]> commands = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                TagMo.getContext().getResources().openRawResource(R.raw.firmware)))) {
+            String strLine;
+            while (null != (strLine = br.readLine())) {
+                String[] parts = strLine.trim().split("\\s+");
+                if (!parts[0].equals("C-APDU")) continue;
+                byte[] apdu = parseBytes(parts);
+                int size = apdu.length > 4 ? apdu[4] & 0xFF : -1;
+                if (size < 0 || size + 5 > apdu.length) break;
+                byte[] command = new byte[size];
+                System.arraycopy(apdu, 5, command, 0, size);
+                commands.add(command);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException(e);
+        }
+        return new FirmwareScript(commands.toArray(new byte[0][]));
+    }
+}
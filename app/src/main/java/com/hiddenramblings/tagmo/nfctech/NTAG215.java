@@ -14,20 +14,32 @@ public class NTAG215 implements TagTechnology {
     private static final int NXP_MANUFACTURER_ID = 0x04;
     private static final int MAX_PAGE_COUNT = 256;
 
-    private final MifareUltralight m_mifare;
-    private final NfcA m_nfcA;
-    private final int maxTransceiveLength;
+    private final TagTransport transport;
+    private final TransceiveTuning tuning;
+    private final TransceiveStats stats;
+
+    // Resent after a reconnect, which drops the authenticated state
+    private byte[] authCommand;
+
+    // Cached for the lifetime of this connection
+    private byte[] uidPages;
+    private byte[] versionInfo;
+    private byte[] signature;
+    private byte[] eliteSignature;
+
+    public NTAG215(TagTransport transport) {
+        this.transport = transport;
+        tuning = TransceiveTuning.get(transport);
+        stats = TransceiveStats.startSession(
+                transport.getName(), transport.getMaxTransceiveLength());
+    }
 
     public NTAG215(NfcA nfcA) {
-        m_nfcA = nfcA;
-        m_mifare = null;
-        maxTransceiveLength = (m_nfcA.getMaxTransceiveLength() / 4) + 1;
+        this(new AndroidTransport(nfcA));
     }
 
     public NTAG215(MifareUltralight mifare) {
-        m_nfcA = null;
-        m_mifare = mifare;
-        maxTransceiveLength = (m_mifare.getMaxTransceiveLength() / 4) + 1;
+        this(new AndroidTransport(mifare));
     }
 
     public static NTAG215 get(Tag tag) {
@@ -53,30 +65,46 @@ public class NTAG215 implements TagTechnology {
 
     @SuppressWarnings("unused")
     public int getTimeout() {
-        if (null != m_mifare)
-            return m_mifare.getTimeout();
-        if (null != m_nfcA) {
-            return m_nfcA.getTimeout();
-        }
-        return 0;
+        return transport.getTimeout();
     }
 
     @SuppressWarnings("unused")
     public void setTimeout(int timeout) {
-        if (null != m_mifare)
-            m_mifare.setTimeout(timeout);
-        if (null != m_nfcA) {
-            m_nfcA.setTimeout(timeout);
+        transport.setTimeout(timeout);
+    }
+
+    /**
+     * Sends a raw command, records it when metrics are enabled and lets
+     * the tuning follow its latency
+     */
+    private byte[] instrumented(byte[] data) throws IOException {
+        long started = TransceiveStats.now();
+        try {
+            byte[] response = transport.transceive(data);
+            if (null != stats)
+                stats.record(data[0] & 0xFF, data.length, response, started, null);
+            applyTimeout(tuning.onLatency(TransceiveStats.now() - started));
+            return response;
+        } catch (IOException | RuntimeException e) {
+            if (null != stats)
+                stats.record(data[0] & 0xFF, data.length, null,
+                        started, e.getClass().getSimpleName());
+            applyTimeout(tuning.onError());
+            throw e;
         }
     }
 
+    private void applyTimeout(int timeout) {
+        if (timeout > 0) transport.setTimeout(timeout);
+    }
+
     public byte[] transceive(byte[] data) {
         try {
-            if (null != m_mifare) {
-                return m_mifare.transceive(data);
-            } else if (null != m_nfcA) {
-                return m_nfcA.transceive(data);
-            }
+            byte[] response = instrumented(data);
+            if ((data[0] & 0xFF) == NfcByte.CMD_PWD_AUTH
+                    && null != response && response.length == 2)
+                authCommand = data.clone();
+            return response;
         } catch (IOException e) {
             Debug.Warn(e);
         }
@@ -84,35 +112,37 @@ public class NTAG215 implements TagTechnology {
     }
 
     public byte[] readPages(int pageOffset) throws IOException {
-        if (null != m_mifare)
-            return m_mifare.readPages(pageOffset);
-        else if (null != m_nfcA) {
-            validatePageIndex(pageOffset);
-            //checkConnected();
-
-            byte[] cmd = {
-                    NfcByte.CMD_READ,
-                    (byte) pageOffset
-            };
-            return m_nfcA.transceive(cmd);
+        validatePageIndex(pageOffset);
+        byte[] cmd = {
+                NfcByte.CMD_READ,
+                (byte) pageOffset
+        };
+        return instrumented(cmd);
+    }
+
+    /**
+     * Pages 0 to 3 (UID, lock bytes and CC), read once and discarded
+     * whenever one of them is written
+     */
+    public byte[] getUidPages() throws IOException {
+        if (null == uidPages) {
+            byte[] pages = readPages(0);
+            if (null == pages || pages.length != NfcByte.PAGE_SIZE * 4) return pages;
+            uidPages = pages;
         }
-        return null;
+        return uidPages;
     }
 
     public void writePage(int pageOffset, byte[] data) throws IOException {
-        if (null != m_mifare) {
-            m_mifare.writePage(pageOffset, data);
-        } else if (null != m_nfcA) {
-            validatePageIndex(pageOffset);
-            //m_nfcA.checkConnected();
-
-            byte[] cmd = new byte[data.length + 2];
-            cmd[0] = (byte) NfcByte.CMD_WRITE;
-            cmd[1] = (byte) pageOffset;
-            System.arraycopy(data, 0, cmd, 2, data.length);
-
-            m_nfcA.transceive(cmd);
-        }
+        if (pageOffset < 4) uidPages = null;
+        validatePageIndex(pageOffset);
+
+        byte[] cmd = new byte[data.length + 2];
+        cmd[0] = (byte) NfcByte.CMD_WRITE;
+        cmd[1] = (byte) pageOffset;
+        System.arraycopy(data, 0, cmd, 2, data.length);
+
+        instrumented(cmd);
     }
 
     private static void validatePageIndex(int pageIndex) {
@@ -127,28 +157,43 @@ public class NTAG215 implements TagTechnology {
     }
 
     public void connect() throws IOException {
-        if (null != m_mifare) {
-            m_mifare.connect();
-        } else if (null != m_nfcA) {
-            m_nfcA.connect();
-        }
+        transport.connect();
+        // Closing the connection restores the default timeout
+        applyTimeout(tuning.getTimeout());
     }
 
     public void close() throws IOException {
-        if (null != m_mifare) {
-            m_mifare.close();
-        } else if (null != m_nfcA) {
-            m_nfcA.close();
-        }
+        authCommand = null;
+        transport.close();
     }
 
     public Tag getTag() {
-        if (null != m_mifare) {
-            return m_mifare.getTag();
-        } else if (null != m_nfcA) {
-            return m_nfcA.getTag();
+        return transport.getTag();
+    }
+
+    public byte[] getUid() {
+        return transport.getId();
+    }
+
+    /**
+     * A tag that rejects a command stops responding until it is selected
+     * again, which also drops a PWD_AUTH session that is then restored
+     */
+    private boolean reconnect() {
+        try {
+            transport.close();
+            connect();
+            if (null == authCommand) return true;
+            byte[] pack = instrumented(authCommand);
+            return null != pack && pack.length == 2;
+        } catch (IOException e) {
+            Debug.Warn(e);
+            return false;
         }
-        return null;
+    }
+
+    void recordRetry(int opcode) {
+        if (null != stats) stats.recordRetry(opcode);
     }
 
     /*
@@ -159,10 +204,14 @@ public class NTAG215 implements TagTechnology {
      * see: http://wiki.yobi.be/wiki/N2_Elite#0x55:_N2_GET_INFO
      */
     public byte[] getVersion(boolean isGeneric) {
+        // The N2 response reports the active bank and can change
+        if (isGeneric && null != versionInfo) return versionInfo;
         byte[] command = isGeneric
                 ? new byte[]{ NfcByte.CMD_GET_VERSION }
                 : new byte[]{ NfcByte.N2_GET_VERSION };
-        return this.transceive(command);
+        byte[] response = this.transceive(command);
+        if (isGeneric) versionInfo = response;
+        return response;
     }
 
     @SuppressWarnings("unused")
@@ -176,10 +225,17 @@ public class NTAG215 implements TagTechnology {
     }
 
     public byte[] readSignature(boolean isGeneric) {
+        byte[] cached = isGeneric ? signature : eliteSignature;
+        if (null != cached) return cached;
         byte[] command = isGeneric
                 ? new byte[] { NfcByte.CMD_READ_SIG, (byte) 0x00 }
                 : new byte[]{ NfcByte.N2_READ_SIG };
-        return this.transceive(command);
+        byte[] response = this.transceive(command);
+        if (isGeneric)
+            signature = response;
+        else
+            eliteSignature = response;
+        return response;
     }
 
     public void setBankCount(int count) {
@@ -217,12 +273,17 @@ public class NTAG215 implements TagTechnology {
         boolean doFastWrite(int i, int i2, byte[] bArr);
     }
 
-    public byte[] fastRead(int startAddr, int endAddr) {
-        return internalFastRead((startAddr1, endAddr1, bank) -> this.transceive(new byte[]{
+    private byte[] doFastRead(int startAddr, int endAddr, int bank) {
+        return this.transceive(new byte[]{
                 NfcByte.CMD_FAST_READ,
-                (byte) (startAddr1 & 0xFF),
-                (byte) (endAddr1 & 0xFF)
-        }), startAddr, endAddr, 0);
+                (byte) (startAddr & 0xFF),
+                (byte) (endAddr & 0xFF)
+        });
+    }
+
+    public byte[] fastRead(int startAddr, int endAddr) {
+        return internalFastRead(this::doFastRead, TransceiveTuning.Window.READ,
+                startAddr, endAddr, 0, tuning.isAdaptive());
     }
 
     public byte[] amiiboFastRead(int startAddr, int endAddr, int bank) {
@@ -231,39 +292,52 @@ public class NTAG215 implements TagTechnology {
                 (byte) (startAddr1 & 0xFF),
                 (byte) (endAddr1 & 0xFF),
                 (byte) (bank1 & 0xFF)
-        }), startAddr, endAddr, bank);
+        }), TransceiveTuning.Window.ELITE_READ, startAddr, endAddr, bank, tuning.isAdaptive());
     }
 
-    private byte[] internalFastRead(IFastRead method, int startAddr, int endAddr, int bank) {
+    /**
+     * Reads pages with FAST_READ in the largest window the reader accepts,
+     * halving the window after a failed exchange. Returns null if single
+     * page windows also fail, with the tag selected again so the caller can
+     * fall back to READ.
+     */
+    public byte[] fastReadPages(int startPage, int endPage) {
+        return internalFastRead(this::doFastRead, TransceiveTuning.Window.READ,
+                startPage, endPage, 0, true);
+    }
+
+    /**
+     * Reads in windows sized by the tuning. When shrinking, a failed window
+     * is retried at half its size after reconnecting, otherwise any failure
+     * returns null.
+     */
+    private byte[] internalFastRead(
+            IFastRead method, TransceiveTuning.Window window,
+            int startAddr, int endAddr, int bank, boolean shrink) {
         if (endAddr < startAddr) {
             return null;
         }
-        byte[] resp = new byte[(((endAddr - startAddr) + 1) * 4)];
-        int maxReadLength = (maxTransceiveLength / 4) - 1;
-        if (maxReadLength < 1) {
-            return null;
-        }
-        int snippetByteSize = maxReadLength * 4;
-        int startSnippet = startAddr;
-        int i = 0;
-        while (startSnippet <= endAddr) {
-            int endSnippet = (startSnippet + maxReadLength) - 1;
-            if (endSnippet > endAddr) {
-                endSnippet = endAddr;
-            }
-            byte[] respSnippet = method.doFastRead(startSnippet, endSnippet, bank);
-            if (null == respSnippet) {
-                return null;
-            }
-            if (respSnippet.length != ((endSnippet - startSnippet) + 1) * 4) {
-                return null;
+        byte[] resp = new byte[((endAddr - startAddr) + 1) * NfcByte.PAGE_SIZE];
+        int page = startAddr;
+        while (page <= endAddr) {
+            int pages = Math.min(tuning.getPages(window), (endAddr - page) + 1);
+            byte[] respSnippet = method.doFastRead(page, page + pages - 1, bank);
+            if (null == respSnippet || respSnippet.length != pages * NfcByte.PAGE_SIZE) {
+                // The tag ignores any command after a NAK until it is reselected
+                if (!shrink || !reconnect() || pages == 1) {
+                    return null;
+                }
+                tuning.onFailure(window, pages);
+                recordRetry(window.opcode);
+                continue;
             }
+            tuning.onSuccess(window, pages);
             if (respSnippet.length == resp.length) {
                 return respSnippet;
             }
-            System.arraycopy(respSnippet, 0, resp, i * snippetByteSize, respSnippet.length);
-            startSnippet += maxReadLength;
-            i++;
+            System.arraycopy(respSnippet, 0, resp,
+                    (page - startAddr) * NfcByte.PAGE_SIZE, respSnippet.length);
+            page += pages;
         }
         return resp;
     }
@@ -300,24 +374,23 @@ public class NTAG215 implements TagTechnology {
     }
 
     private boolean internalFastWrite(IFastWrite method, int startAddr, int bank, byte[] data) {
-        int snippetByteSize = 16;
-        int endAddr = startAddr + (data.length / 4);
-        int startSnippet = startAddr;
-        int i = 0;
-        while (startSnippet <= endAddr) {
-            if (startSnippet + 4 >= endAddr) {
-                snippetByteSize = data.length % snippetByteSize;
-            }
-            if (snippetByteSize == 0) {
-                return true;
-            }
-            byte[] query = new byte[snippetByteSize];
-            System.arraycopy(data, i, query, 0, snippetByteSize);
-            if (!method.doFastWrite(startSnippet, bank, query)) {
-                return false;
+        TransceiveTuning.Window window = TransceiveTuning.Window.ELITE_WRITE;
+        int offset = 0;
+        while (offset < data.length) {
+            int size = Math.min(tuning.getPages(window) * NfcByte.PAGE_SIZE, data.length - offset);
+            byte[] query = new byte[size];
+            System.arraycopy(data, offset, query, 0, size);
+            int page = startAddr + (offset / NfcByte.PAGE_SIZE);
+            if (!method.doFastWrite(page, bank, query)) {
+                if (!tuning.isAdaptive() || size <= NfcByte.PAGE_SIZE || !reconnect()) {
+                    return false;
+                }
+                tuning.onFailure(window, size / NfcByte.PAGE_SIZE);
+                recordRetry(window.opcode);
+                continue;
             }
-            startSnippet += 4;
-            i += snippetByteSize;
+            tuning.onSuccess(window, size / NfcByte.PAGE_SIZE);
+            offset += size;
         }
         return true;
     }
@@ -334,8 +407,7 @@ public class NTAG215 implements TagTechnology {
             req[3] = (byte) (data1.length & 0xFF);
             try {
                 System.arraycopy(data1, 0, req, 4, data1.length);
-                this.transceive(req);
-                return true;
+                return null != this.transceive(req);
             } catch (Exception e) {
                 return false;
             }
@@ -362,6 +434,6 @@ public class NTAG215 implements TagTechnology {
 
     @Override
     public boolean isConnected() {
-        return m_nfcA.isConnected();
+        return transport.isConnected();
     }
 }
@@ -2,9 +2,11 @@ package com.hiddenramblings.tagmo.nfctech;
 
 import android.content.Context;
 import android.net.Uri;
+import android.os.SystemClock;
 
 import com.hiddenramblings.tagmo.R;
 import com.hiddenramblings.tagmo.TagMo;
+import com.hiddenramblings.tagmo.amiibo.KeyManager;
 import com.hiddenramblings.tagmo.eightbit.io.Debug;
 
 import java.io.DataInputStream;
@@ -13,13 +15,23 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class TagReader {
 
     private static final int BULK_READ_PAGE_COUNT = 4;
+    private static final int TITLE_RETRIES = 3;
+    private static final long TITLE_BACKOFF_MS = 10;
+    private static final int TITLE_FAILURE_LIMIT = 3;
+
+    // Placeholder for a bank title that could not be read
+    public static final String UNREADABLE_BANK = "";
 
     static void validateBlankTag(NTAG215 mifare) throws IOException {
-        byte[] lockPage = mifare.readPages(0x02);
+        byte[] pages = mifare.getUidPages();
+        if (null == pages || pages.length != NfcByte.PAGE_SIZE * 4)
+            throw new IOException(TagMo.getContext().getString(R.string.fail_read));
+        byte[] lockPage = Arrays.copyOfRange(pages, 2 * NfcByte.PAGE_SIZE, 3 * NfcByte.PAGE_SIZE);
         Debug.Info(TagWriter.class, TagUtils.bytesToHex(lockPage));
         if (lockPage[2] == (byte) 0x0F && lockPage[3] == (byte) 0xE0) {
             throw new IOException(TagMo.getContext()
@@ -54,8 +66,17 @@ public class TagReader {
     }
 
     public static byte[] readFromTag(NTAG215 tag) throws Exception {
-        byte[] tagData = new byte[NfcByte.TAG_FILE_SIZE];
         int pageCount = NfcByte.TAG_FILE_SIZE / NfcByte.PAGE_SIZE;
+        byte[] tagData = tag.fastReadPages(0, pageCount - 1);
+        if (null == tagData || tagData.length != NfcByte.TAG_FILE_SIZE)
+            tagData = readPagesFromTag(tag, pageCount);
+
+        Debug.Info(TagReader.class, TagUtils.bytesToHex(tagData));
+        return tagData;
+    }
+
+    private static byte[] readPagesFromTag(NTAG215 tag, int pageCount) throws Exception {
+        byte[] tagData = new byte[NfcByte.TAG_FILE_SIZE];
 
         for (int i = 0; i < pageCount; i += BULK_READ_PAGE_COUNT) {
             byte[] pages = tag.readPages(i);
@@ -69,34 +90,61 @@ public class TagReader {
 
             System.arraycopy(pages, 0, tagData, dstIndex, dstCount);
         }
-
-        Debug.Info(TagReader.class, TagUtils.bytesToHex(tagData));
         return tagData;
     }
 
     static byte[] readBankTitle(NTAG215 tag, int bank) {
-        return tag.amiiboFastRead(0x15, 0x16, bank);
+        try {
+            byte[] title = tag.amiiboFastRead(0x15, 0x16, bank);
+            if (null != title && title.length == 8) return title;
+        } catch (Exception e) {
+            Debug.Warn(e);
+        }
+        return null;
     }
 
+    /**
+     * Reads the title of every bank, retrying each one a few times with a
+     * growing delay. Banks that still fail, and every bank after the tag
+     * stops responding, are returned as UNREADABLE_BANK.
+     */
     public static ArrayList<String> readTagTitles(NTAG215 tag, int numBanks) {
-        ArrayList<String> tags = new ArrayList<>();
-        int i = 0;
-        while (i < (numBanks & 0xFF)) {
-            try {
-                byte[] tagData = readBankTitle(tag, i);
-                if (null == tagData || tagData.length != 8) {
-                    throw new NullPointerException();
-                }
+        int bankCount = numBanks & 0xFF;
+        ArrayList<String> tags = new ArrayList<>(bankCount);
+        int failures = 0;
+        for (int i = 0; i < bankCount; i++) {
+            if (failures >= TITLE_FAILURE_LIMIT || !tag.isConnected()) {
+                tags.add(UNREADABLE_BANK);
+                continue;
+            }
+            byte[] tagData = readBankTitle(tag, i);
+            for (int retry = 0; null == tagData && retry < TITLE_RETRIES; retry++) {
+                SystemClock.sleep(TITLE_BACKOFF_MS << retry);
+                tagData = readBankTitle(tag, i);
+            }
+            if (null != tagData) {
                 tags.add(TagUtils.bytesToHex(tagData));
-                i++;
-            } catch (Exception e) {
+                failures = 0;
+            } else {
+                tags.add(UNREADABLE_BANK);
+                failures += 1;
                 Debug.Warn(TagReader.class, TagMo.getContext()
                         .getString(R.string.fail_parse_banks));
             }
         }
+        EliteBankCache cache = EliteBankCache.get(tag);
+        if (null != cache) cache.setTitles(tags);
         return tags;
     }
 
+    /**
+     * Pages that change whenever the contents of a bank are rewritten
+     */
+    static byte[] readBankFingerprint(NTAG215 tag, int bank) {
+        return tag.amiiboFastRead(EliteBankCache.FINGERPRINT_START,
+                EliteBankCache.FINGERPRINT_END, bank);
+    }
+
     public static byte[] getBankDetails(NTAG215 tag) {
         return tag.getVersion(false);
     }
@@ -112,7 +160,7 @@ public class TagReader {
             throws IllegalStateException, NullPointerException {
         byte[] tagData = new byte[NfcByte.TAG_FILE_SIZE];
         try {
-            byte[] data = bank == -1 ? tag.fastRead(0x00, 0x86)
+            byte[] data = bank == -1 ? tag.fastReadPages(0x00, 0x86)
                     : tag.amiiboFastRead(0x00, 0x86, bank);
             if (null == data) {
                 throw new NullPointerException(TagMo.getContext()
@@ -129,6 +177,25 @@ public class TagReader {
         }
     }
 
+    /**
+     * Returns the validated contents of a bank, reading the whole bank only
+     * if the cached copy no longer matches the device
+     */
+    public static byte[] scanBankValidated(NTAG215 tag, int bank, KeyManager keyManager)
+            throws Exception {
+        EliteBankCache cache = EliteBankCache.get(tag);
+        byte[] tagData = null != cache
+                ? cache.getBankData(bank, readBankFingerprint(tag, bank)) : null;
+        if (null != tagData) {
+            Debug.Info(TagReader.class, R.string.elite_bank_cached, String.valueOf(bank));
+        } else {
+            tagData = scanBankToBytes(tag, bank);
+        }
+        byte[] validated = TagUtils.getValidatedData(keyManager, tagData);
+        if (null != cache) cache.putBankData(bank, tagData);
+        return validated;
+    }
+
     public static byte[] scanBankToBytes(NTAG215 tag, int bank)
             throws IllegalStateException, NullPointerException {
         final Context context = TagMo.getContext();
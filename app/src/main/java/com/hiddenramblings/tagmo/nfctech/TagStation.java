@@ -0,0 +1,131 @@
+package com.hiddenramblings.tagmo.nfctech;
+
+import com.hiddenramblings.tagmo.R;
+import com.hiddenramblings.tagmo.TagMo;
+import com.hiddenramblings.tagmo.amiibo.KeyManager;
+import com.hiddenramblings.tagmo.eightbit.io.Debug;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a queue of amiibo to blank NTAG215 tags presented back to back.
+ * Upcoming entries are loaded on a worker pool before their tag arrives
+ * and the UID patched payload is built as soon as the UID is read. Entries
+ * that cannot be loaded are skipped and counted.
+ */
+public class TagStation {
+
+    private static final int PREFETCH = 3;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    private final KeyManager keyManager;
+    private final List<Callable<byte[]>> queue;
+    private final HashMap<Integer, Future<byte[]>> decrypted = new HashMap<>();
+    private int position;
+    private int skipped;
+    private long startNanos;
+
+    /**
+     * @param queue Decrypted amiibo data, in the order it is written
+     */
+    public TagStation(KeyManager keyManager, List<Callable<byte[]>> queue) {
+        this.keyManager = keyManager;
+        this.queue = queue;
+        prefetch();
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getCount() {
+        return queue.size();
+    }
+
+    public boolean isFinished() {
+        return position >= queue.size();
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Tags written per minute since the first tag was presented
+     */
+    public float getTagsPerMinute() {
+        long elapsed = System.nanoTime() - startNanos;
+        if (0 == startNanos || elapsed <= 0) return 0;
+        return (position - skipped) * 60000000000f / elapsed;
+    }
+
+    private synchronized void prefetch() {
+        int end = Math.min(queue.size(), position + PREFETCH);
+        for (int i = position; i < end; i++) {
+            if (decrypted.containsKey(i)) continue;
+            decrypted.put(i, pool.submit(queue.get(i)));
+        }
+    }
+
+    private static byte[] await(Future<byte[]> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * Returns the data of the current entry after skipping any that failed
+     * to load, or null if none are left
+     */
+    private byte[] nextEntry() {
+        while (!isFinished()) {
+            prefetch();
+            try {
+                byte[] data = await(decrypted.get(position));
+                if (null != data) return data;
+            } catch (Exception e) {
+                Debug.Warn(e);
+            }
+            decrypted.remove(position);
+            skipped += 1;
+            position += 1;
+        }
+        return null;
+    }
+
+    /**
+     * Writes the next entry to a blank tag and moves on to the following
+     * one. A failed write leaves the entry queued for the next tag.
+     */
+    public synchronized void writeNext(
+            NTAG215 mifare, boolean validateNtag
+    ) throws Exception {
+        if (isFinished()) return;
+        if (0 == startNanos) startNanos = System.nanoTime();
+        byte[] idPages = mifare.getUidPages();
+        if (null == idPages || idPages.length != NfcByte.PAGE_SIZE * 4)
+            throw new IOException(TagMo.getContext().getString(R.string.fail_read_size));
+        byte[] data = nextEntry();
+        if (null == data) return;
+        byte[] payload = keyManager.encrypt(TagWriter.patchUid(idPages, data));
+        TagWriter.writeToTagRaw(mifare, payload, validateNtag);
+        decrypted.remove(position);
+        position += 1;
+        prefetch();
+    }
+
+    public void close() {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,35 @@
+package com.hiddenramblings.tagmo.nfctech;
+
+import android.nfc.Tag;
+
+import java.io.IOException;
+
+/**
+ * Raw command channel to a tag, implemented by the Android NFC stack and
+ * by the tag emulator of the unit tests
+ */
+public interface TagTransport {
+
+    String getName();
+
+    /**
+     * The Android tag, or null if the transport is not backed by one
+     */
+    Tag getTag();
+
+    byte[] getId();
+
+    int getMaxTransceiveLength();
+
+    int getTimeout();
+
+    void setTimeout(int timeout);
+
+    void connect() throws IOException;
+
+    void close() throws IOException;
+
+    boolean isConnected();
+
+    byte[] transceive(byte[] data) throws IOException;
+}
@@ -125,7 +125,7 @@ public class TagUtils {
 
     public static boolean isPowerTag(NTAG215 mifare) {
         if (TagMo.getPrefs().enable_power_tag_support().get()) {
-            byte[] signature = mifare.transceive(NfcByte.POWERTAG_SIG);
+            byte[] signature = mifare.readSignature(true);
             return null != signature && TagUtils.compareRange(signature,
                     NfcByte.POWERTAG_SIGNATURE, NfcByte.POWERTAG_SIGNATURE.length);
         }
@@ -256,7 +256,7 @@ public class TagUtils {
 
         if (validateNtag) {
             try {
-                byte[] versionInfo = mifare.transceive(new byte[]{(byte) 0x60});
+                byte[] versionInfo = mifare.getVersion(true);
                 if (null == versionInfo  || versionInfo.length != 8)
                     throw new Exception(context.getString(R.string.error_tag_version));
                 if (versionInfo[0x02] != (byte) 0x04 || versionInfo[0x06] != (byte) 0x11)
@@ -267,7 +267,7 @@ public class TagUtils {
             }
         }
 
-        byte[] pages = mifare.readPages(0);
+        byte[] pages = mifare.getUidPages();
         if (null == pages  || pages.length != NfcByte.PAGE_SIZE * 4)
             throw new Exception(context.getString(R.string.fail_read_size));
 
@@ -311,6 +311,14 @@ public class TagUtils {
     }
 
     public static byte[] getValidatedData(KeyManager keyManager, byte[] data) throws Exception {
+        data = getDecryptedData(keyManager, data);
+        return null != data ? keyManager.encrypt(data) : null;
+    }
+
+    /**
+     * Validates the data like getValidatedData, but returns it decrypted
+     */
+    public static byte[] getDecryptedData(KeyManager keyManager, byte[] data) throws Exception {
         if (null == data ) return null;
         try {
             TagUtils.validateData(data);
@@ -320,13 +328,17 @@ public class TagUtils {
             TagUtils.validateData(data);
             data = keyManager.decrypt(data);
         }
-        return keyManager.encrypt(data);
+        return data;
     }
 
     public static byte[] getValidatedFile(KeyManager keyManager, File file) throws Exception {
         return getValidatedData(keyManager, TagReader.readTagFile(file));
     }
 
+    public static byte[] getDecryptedFile(KeyManager keyManager, File file) throws Exception {
+        return getDecryptedData(keyManager, TagReader.readTagFile(file));
+    }
+
     public static byte[] getValidatedDocument(
             KeyManager keyManager, Uri fileUri) throws Exception {
         return getValidatedData(keyManager, TagReader.readTagDocument(fileUri));
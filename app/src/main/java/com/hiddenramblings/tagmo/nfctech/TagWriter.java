@@ -8,39 +8,80 @@ import com.hiddenramblings.tagmo.amiibo.KeyManager;
 import com.hiddenramblings.tagmo.amiibo.PowerTagManager;
 import com.hiddenramblings.tagmo.eightbit.io.Debug;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class TagWriter {
 
+    private static ExecutorService executor;
+
+    private static final int POWERTAG_CACHE_SIZE = 8;
+    private static final LinkedHashMap<ByteBuffer, byte[]> powerTagPayloads =
+            new LinkedHashMap<ByteBuffer, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, byte[]> eldest) {
+            return size() > POWERTAG_CACHE_SIZE;
+        }
+    };
+
+    private static final int BLANK_START_PAGE = 0x04;
+    private static final int BLANK_END_PAGE = 0x16;
+    private static final byte[] BLANK_BANK = new byte[540];
+    private static final byte[] BLANK_ID_PAGES =
+            new byte[(BLANK_END_PAGE - BLANK_START_PAGE + 1) * NfcByte.PAGE_SIZE];
+
+    static {
+        Arrays.fill(BLANK_BANK, (byte) 0xFF);
+        Arrays.fill(BLANK_ID_PAGES, (byte) 0xFF);
+    }
+
+    public interface BankListener {
+        void onBankWriting(int bank, int count);
+    }
+
     public static void writeToTagRaw(
             NTAG215 mifare, byte[] tagData, boolean validateNtag
     ) throws Exception {
-        final Context context = TagMo.getContext();
         TagUtils.validateNtag(mifare, tagData, validateNtag);
-        TagReader.validateBlankTag(mifare);
+        WriteJournal journal = WriteJournal.open(mifare, tagData);
+        if (!journal.isLocking()) TagReader.validateBlankTag(mifare);
+        writeJournaled(mifare, tagData, journal);
+    }
 
-        try {
-            byte[][] pages = TagUtils.splitPages(tagData);
-            writePages(mifare, 3, 129, pages);
-            Debug.Info(TagWriter.class, R.string.data_write);
-        } catch (Exception e) {
-            throw new Exception(context.getString(R.string.error_data_write), e);
-        }
-        try {
-            writePassword(mifare);
-            Debug.Info(TagWriter.class, R.string.password_write);
-        } catch (Exception e) {
-            throw new Exception(context.getString(R.string.error_password_write), e);
-        }
-        try {
-            writeLockInfo(mifare);
-            Debug.Info(TagWriter.class, R.string.lock_write);
-        } catch (Exception e) {
-            throw new Exception(context.getString(R.string.error_lock_write), e);
+    /**
+     * Writes the data pages, password and lock sequence, continuing from the
+     * checkpoint of an interrupted write to the same tag
+     */
+    private static void writeJournaled(
+            NTAG215 mifare, byte[] tagData, WriteJournal journal
+    ) throws Exception {
+        if (journal.isResumed())
+            Debug.Info(TagWriter.class, R.string.write_resume,
+                    String.valueOf(journal.getConfirmedPage() + 1));
+        if (journal.getStage() == WriteJournal.STAGE_DATA) {
+            try {
+                byte[][] pages = TagUtils.splitPages(tagData);
+                writePagesDiff(mifare, 3, 129, pages, readLiveData(mifare), journal);
+                if (isVerifying()) verifyPages(mifare, 3, 129, pages);
+                journal.setStage(WriteJournal.STAGE_PASSWORD);
+                Debug.Info(TagWriter.class, R.string.data_write);
+            } catch (Exception e) {
+                throw new Exception(TagMo.getContext()
+                        .getString(R.string.error_data_write), e);
+            }
         }
+        writePasswordLockInfo(mifare, journal);
+        WriteJournal.close(journal);
     }
 
     private static void writePages(
@@ -52,7 +93,49 @@ public class TagWriter {
         }
     }
 
-    private static byte[] patchUid(byte[] uid, byte[] tagData) throws Exception {
+    private static byte[] readLiveData(NTAG215 tag) {
+        try {
+            return TagReader.readFromTag(tag);
+        } catch (Exception e) {
+            Debug.Warn(e);
+            return null;
+        }
+    }
+
+    private static void writePagesDiff(
+            NTAG215 tag, int pagestart, int pageend, byte[][] data, byte[] liveData
+    ) throws IOException {
+        writePagesDiff(tag, pagestart, pageend, data, liveData, null);
+    }
+
+    /**
+     * Writes only the pages that differ from the live contents of the tag, or
+     * every page in range if they could not be read. Lock and config pages
+     * are outside of every data range and are always written separately.
+     * Without a live read, a journal skips the pages it already confirmed.
+     */
+    private static void writePagesDiff(
+            NTAG215 tag, int pagestart, int pageend, byte[][] data, byte[] liveData,
+            WriteJournal journal
+    ) throws IOException {
+        boolean verified = null != liveData
+                && liveData.length >= (pageend + 1) * NfcByte.PAGE_SIZE;
+        int skipped = 0;
+        for (int i = pagestart; i <= pageend; i++) {
+            if (verified ? TagUtils.compareRange(liveData, data[i], i * NfcByte.PAGE_SIZE,
+                    (i + 1) * NfcByte.PAGE_SIZE)
+                    : null != journal && i <= journal.getConfirmedPage()) {
+                skipped++;
+            } else {
+                tag.writePage(i, data[i]);
+                Debug.Info(TagWriter.class, R.string.write_page, String.valueOf(i));
+            }
+            if (null != journal) journal.confirmPage(i);
+        }
+        Debug.Info(TagWriter.class, R.string.write_page_skip, String.valueOf(skipped));
+    }
+
+    static byte[] patchUid(byte[] uid, byte[] tagData) throws Exception {
         if (uid.length < 9) throw new IOException(TagMo.getContext()
                 .getString(R.string.invalid_uid_length));
 
@@ -62,16 +145,34 @@ public class TagWriter {
         return patched;
     }
 
-    private static void writePasswordLockInfo(NTAG215 mifare) throws Exception {
-        try {
-            writePassword(mifare);
-            Debug.Info(TagWriter.class, R.string.password_write);
-        } catch (Exception e) {
-            throw new Exception(TagMo.getContext()
-                    .getString(R.string.error_password_write), e);
+    private static byte[] getUidPages(NTAG215 tag) throws IOException {
+        byte[] pages = tag.getUidPages();
+        if (null == pages  || pages.length != NfcByte.PAGE_SIZE * 4)
+            throw new IOException(TagMo.getContext().getString(R.string.fail_read));
+        return pages;
+    }
+
+    /**
+     * PACK, PWD and the lock and config pages are derived from a single read
+     * of the UID pages and written back to back
+     */
+    private static void writePasswordLockInfo(
+            NTAG215 mifare, WriteJournal journal
+    ) throws Exception {
+        byte[] pages = getUidPages(mifare);
+        if (journal.needsAuth()) doAuth(mifare);
+        if (journal.getStage() == WriteJournal.STAGE_PASSWORD) {
+            try {
+                writePassword(mifare, pages);
+                journal.setStage(WriteJournal.STAGE_LOCK);
+                Debug.Info(TagWriter.class, R.string.password_write);
+            } catch (Exception e) {
+                throw new Exception(TagMo.getContext()
+                        .getString(R.string.error_password_write), e);
+            }
         }
         try {
-            writeLockInfo(mifare);
+            writeLockInfo(mifare, pages, journal);
             Debug.Info(TagWriter.class, R.string.lock_write);
         } catch (Exception e) {
             throw new Exception(TagMo.getContext()
@@ -79,10 +180,51 @@ public class TagWriter {
         }
     }
 
+    /**
+     * The dump patched with the static PowerTag id and encrypted, computed
+     * once per dump rather than while a PowerTag is in the field
+     */
+    private static byte[] getPowerTagPayload(
+            byte[] tagData, KeyManager keyManager
+    ) throws Exception {
+        ByteBuffer source = ByteBuffer.wrap(tagData.clone());
+        synchronized (powerTagPayloads) {
+            byte[] payload = powerTagPayloads.get(source);
+            if (null != payload) return payload;
+        }
+        byte[] decrypted;
+        try {
+            decrypted = keyManager.decrypt(tagData);
+        } catch (Exception e) {
+            throw new Exception(e);
+        }
+        byte[] payload = keyManager.encrypt(patchUid(NfcByte.POWERTAG_IDPAGES, decrypted));
+        synchronized (powerTagPayloads) {
+            powerTagPayloads.put(source, payload);
+        }
+        return payload;
+    }
+
+    /**
+     * Loads the PowerTag key table and prepares the PowerTag variant of the
+     * dump in the background, ahead of a tag being presented
+     */
+    public static void preloadPowerTag(byte[] tagData, KeyManager keyManager) {
+        if (null == tagData || !TagMo.getPrefs().enable_power_tag_support().get()) return;
+        getExecutor().execute(() -> {
+            try {
+                PowerTagManager.getPowerTagManager();
+                getPowerTagPayload(tagData, keyManager);
+            } catch (Exception e) {
+                Debug.Warn(e);
+            }
+        });
+    }
+
     public static void writeToTagAuto(
             NTAG215 mifare, byte[] tagData, KeyManager keyManager, boolean validateNtag
     ) throws Exception {
-        byte[] idPages = mifare.readPages(0);
+        byte[] idPages = mifare.getUidPages();
         if (null == idPages  || idPages.length != NfcByte.PAGE_SIZE * 4)
             throw new IOException(TagMo.getContext()
                     .getString(R.string.fail_read_size));
@@ -90,33 +232,33 @@ public class TagWriter {
         boolean isPowerTag = TagUtils.isPowerTag(mifare);
         Debug.Info(TagWriter.class, R.string.power_tag_verify, String.valueOf(isPowerTag));
 
-        try {
-            tagData = keyManager.decrypt(tagData);
-        } catch (Exception e) {
-            throw new Exception(e);
-        }
-
         if (isPowerTag) {
             // use a pre-determined static id for Power Tag
-            tagData = patchUid(NfcByte.POWERTAG_IDPAGES, tagData);
+            tagData = getPowerTagPayload(tagData, keyManager);
         } else {
-            tagData = patchUid(idPages, tagData);
+            try {
+                tagData = keyManager.decrypt(tagData);
+            } catch (Exception e) {
+                throw new Exception(e);
+            }
+            tagData = keyManager.encrypt(patchUid(idPages, tagData));
         }
-        tagData = keyManager.encrypt(tagData);
 
         Debug.Info(TagWriter.class, TagUtils.bytesToHex(tagData));
 
+        WriteJournal journal = null;
         if (!isPowerTag) {
             TagUtils.validateNtag(mifare, tagData, validateNtag);
+            journal = WriteJournal.open(mifare, tagData);
             try {
-                TagReader.validateBlankTag(mifare);
+                if (!journal.isLocking()) TagReader.validateBlankTag(mifare);
             } catch (IOException e) {
                 throw new IOException(e);
             }
         }
 
         if (isPowerTag) {
-            byte[] oldid = mifare.getTag().getId();
+            byte[] oldid = mifare.getUid();
             if (null == oldid  || oldid.length != 7)
                 throw new Exception(TagMo.getContext()
                         .getString(R.string.fail_read_uid));
@@ -150,13 +292,7 @@ public class TagWriter {
             mifare.writePage(0x00, pages[0]); //UID
             mifare.writePage(0x00, pages[0]); //UID
         } else {
-            try {
-                writePages(mifare, 3, 129, pages);
-                Debug.Info(TagWriter.class, R.string.data_write);
-            } catch (Exception e) {
-                throw new Exception(TagMo.getContext().getString(R.string.error_data_write), e);
-            }
-            writePasswordLockInfo(mifare);
+            writeJournaled(mifare, tagData, journal);
         }
     }
 
@@ -167,38 +303,172 @@ public class TagWriter {
             tagData = keyManager.decrypt(tagData);
             // tagData = patchUid(mifare.readPages(0), tagData);
             tagData = keyManager.encrypt(tagData);
-            boolean write = mifare.amiiboFastWrite(0, active_bank, tagData);
-            if (!write) write = mifare.amiiboWrite(0, active_bank, tagData);
-            if (!write) throw new IOException(TagMo.getContext()
-                    .getString(R.string.error_elite_write));
+            invalidateBank(mifare, active_bank);
+            if (!writeEliteBank(mifare, tagData, active_bank)) throw new IOException(
+                    TagMo.getContext().getString(R.string.error_elite_write));
         } else {
             throw new Exception(TagMo.getContext()
                     .getString(R.string.error_elite_auth));
         }
     }
 
+    private static void invalidateBank(NTAG215 mifare, int bank) {
+        EliteBankCache cache = EliteBankCache.get(mifare);
+        if (null == cache) return;
+        if (bank < 0) cache.invalidateAll();
+        else cache.invalidate(bank);
+    }
+
+    private static boolean writeEliteBank(
+            NTAG215 mifare, byte[] tagData, int bank
+    ) throws IOException {
+        boolean write = mifare.amiiboFastWrite(0, bank, tagData);
+        if (!write) write = mifare.amiiboWrite(0, bank, tagData);
+        if (write && isVerifying()) verifyEliteBank(mifare, tagData, bank);
+        return write;
+    }
+
+    private static boolean isVerifying() {
+        return TagMo.getPrefs().enable_write_verification().get();
+    }
+
+    private static ArrayList<Integer> getMismatchedPages(
+            byte[] liveData, int pagestart, int pageend, byte[][] data
+    ) throws IOException {
+        if (null == liveData || liveData.length != (pageend - pagestart + 1) * NfcByte.PAGE_SIZE)
+            throw new IOException(TagMo.getContext().getString(R.string.fail_read));
+        ArrayList<Integer> mismatched = new ArrayList<>();
+        for (int i = pagestart; i <= pageend; i++) {
+            int offset = (i - pagestart) * NfcByte.PAGE_SIZE;
+            for (int j = 0; j < NfcByte.PAGE_SIZE; j++) {
+                if (liveData[offset + j] != data[i][j]) {
+                    mismatched.add(i);
+                    break;
+                }
+            }
+        }
+        return mismatched;
+    }
+
+    /**
+     * Reads back the written range in as few FAST_READ commands as the
+     * reader allows and rewrites any page that differs, once
+     */
+    private static void verifyPages(
+            NTAG215 tag, int pagestart, int pageend, byte[][] data
+    ) throws IOException {
+        ArrayList<Integer> mismatched = getMismatchedPages(
+                tag.fastReadPages(pagestart, pageend), pagestart, pageend, data);
+        if (mismatched.isEmpty()) return;
+        Debug.Info(TagWriter.class, R.string.write_verify_rewrite,
+                String.valueOf(mismatched.size()));
+        for (int page : mismatched) {
+            tag.writePage(page, data[page]);
+        }
+        if (!getMismatchedPages(tag.fastReadPages(pagestart, pageend),
+                pagestart, pageend, data).isEmpty())
+            throw new IOException(TagMo.getContext().getString(R.string.error_write_verify));
+    }
+
+    private static void verifyEliteBank(
+            NTAG215 mifare, byte[] tagData, int bank
+    ) throws IOException {
+        byte[][] pages = new byte[tagData.length / NfcByte.PAGE_SIZE][];
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = Arrays.copyOfRange(tagData,
+                    i * NfcByte.PAGE_SIZE, (i + 1) * NfcByte.PAGE_SIZE);
+        }
+        int pageend = pages.length - 1;
+        ArrayList<Integer> mismatched = getMismatchedPages(
+                mifare.amiiboFastRead(0, pageend, bank), 0, pageend, pages);
+        if (mismatched.isEmpty()) return;
+        Debug.Info(TagWriter.class, R.string.write_verify_rewrite,
+                String.valueOf(mismatched.size()));
+        for (int page : mismatched) {
+            mifare.amiiboWrite(page, bank, pages[page]);
+        }
+        if (!getMismatchedPages(mifare.amiiboFastRead(0, pageend, bank),
+                0, pageend, pages).isEmpty())
+            throw new IOException(TagMo.getContext().getString(R.string.error_write_verify));
+    }
+
+    // One worker, since amiitool keeps its keys in native state
+    private static synchronized ExecutorService getExecutor() {
+        if (null == executor) {
+            executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "TagWriter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Writes each payload to the bank matching its index in a single
+     * authenticated session. Payloads must return encrypted, validated data
+     * and are prepared in the background while earlier banks are written.
+     */
+    public static void writeEliteBanks(
+            NTAG215 mifare, List<Callable<byte[]>> payloads, BankListener listener
+    ) throws Exception {
+        ArrayList<Future<byte[]>> prepared = new ArrayList<>(payloads.size());
+        for (Callable<byte[]> payload : payloads) {
+            prepared.add(getExecutor().submit(payload));
+        }
+        try {
+            if (!doEliteAuth(mifare, mifare.fastRead(0, 0))) throw new Exception(
+                    TagMo.getContext().getString(R.string.error_elite_auth));
+            invalidateBank(mifare, -1);
+            for (int bank = 0; bank < prepared.size(); bank++) {
+                byte[] tagData;
+                try {
+                    tagData = prepared.get(bank).get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    throw cause instanceof Exception ? (Exception) cause : e;
+                }
+                if (null != listener) listener.onBankWriting(bank, prepared.size());
+                boolean write = writeEliteBank(mifare, tagData, bank);
+                // A failed exchange can drop the authentication with the tag
+                if (!write && doEliteAuth(mifare, mifare.fastRead(0, 0)))
+                    write = writeEliteBank(mifare, tagData, bank);
+                if (!write) throw new IOException(
+                        TagMo.getContext().getString(R.string.error_elite_write));
+            }
+        } finally {
+            for (Future<byte[]> future : prepared) future.cancel(true);
+        }
+    }
+
     public static void restoreTag(
             NTAG215 mifare, byte[] tagData, boolean ignoreUid,
             KeyManager keyManager, boolean validateNtag
     ) throws Exception {
-        if (!ignoreUid)
+        byte[] liveData;
+        if (!ignoreUid) {
             TagUtils.validateNtag(mifare, tagData, validateNtag);
-        else {
-            byte[] liveData = TagReader.readFromTag(mifare);
+            liveData = readLiveData(mifare);
+        } else {
+            liveData = TagReader.readFromTag(mifare);
             if (!TagUtils.compareRange(liveData, tagData, 9)) {
                 // restoring to different tag: transplant mii and appdata to livedata and re-encrypt
-                liveData = keyManager.decrypt(liveData);
+                byte[] transplant = keyManager.decrypt(liveData);
                 tagData = keyManager.decrypt(tagData);
-                System.arraycopy(tagData, 0x08, liveData, 0x08, 0x1B4 - 0x08);
+                System.arraycopy(tagData, 0x08, transplant, 0x08, 0x1B4 - 0x08);
                 /* TODO: Verify that 0x1B4 should not be 0x1D4 */
-                tagData = keyManager.encrypt(liveData);
+                tagData = keyManager.encrypt(transplant);
             }
         }
 
         doAuth(mifare);
         byte[][] pages = TagUtils.splitPages(tagData);
-        writePages(mifare, 4, 12, pages);
-        writePages(mifare, 32, 129, pages);
+        writePagesDiff(mifare, 4, 12, pages, liveData);
+        writePagesDiff(mifare, 32, 129, pages, liveData);
+        if (isVerifying()) {
+            verifyPages(mifare, 4, 12, pages);
+            verifyPages(mifare, 32, 129, pages);
+        }
     }
 
     /**
@@ -239,13 +509,7 @@ public class TagWriter {
 
     @SuppressWarnings("ConstantConditions")
     private static void doAuth(NTAG215 tag) throws Exception {
-        byte[] pages0_1 = tag.readPages(0);
-
-        if (null == pages0_1  || pages0_1.length != NfcByte.PAGE_SIZE * 4)
-            throw new IOException(TagMo.getContext().getString(R.string.fail_read));
-
-        byte[] uid = uidFromPages(pages0_1);
-        byte[] password = keygen(uid);
+        byte[] password = keygen(uidFromPages(getUidPages(tag)));
 
         Debug.Info(TagWriter.class, R.string.password, TagUtils.bytesToHex(password));
 
@@ -285,14 +549,8 @@ public class TagWriter {
     }
 
     @SuppressWarnings("ConstantConditions")
-    private static void writePassword(NTAG215 tag) throws IOException {
-        byte[] pages0_1 = tag.readPages(0);
-
-        if (null == pages0_1  || pages0_1.length != NfcByte.PAGE_SIZE * 4)
-            throw new IOException(TagMo.getContext().getString(R.string.fail_read));
-
-        byte[] uid = uidFromPages(pages0_1);
-        byte[] password = keygen(uid);
+    private static void writePassword(NTAG215 tag, byte[] pages0_1) throws IOException {
+        byte[] password = keygen(uidFromPages(pages0_1));
 
         Debug.Info(TagWriter.class, R.string.password, TagUtils.bytesToHex(password));
 
@@ -303,102 +561,86 @@ public class TagWriter {
         tag.writePage(0x85, password);
     }
 
-    private static void writeLockInfo(NTAG215 tag) throws IOException {
-        byte[] pages = tag.readPages(0);
-
-        if (null == pages  || pages.length != NfcByte.PAGE_SIZE * 4)
-            throw new IOException(TagMo.getContext().getString(R.string.fail_read));
-
-        tag.writePage(2, new byte[]{pages[2 * NfcByte.PAGE_SIZE],
-                pages[(2 * NfcByte.PAGE_SIZE) + 1], (byte) 0x0F, (byte) 0xE0}); // lock bits
-        tag.writePage(130, new byte[]{(byte) 0x01, (byte) 0x00, (byte) 0x0F, (byte) 0x00});
-        // dynamic lock bits. should the last bit be 0xBD according to the nfc docs though:
-        // Remark: Set all bits marked with RFUI to 0, when writing to the dynamic lock bytes.
-        tag.writePage(131, new byte[]{(byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x04}); // config
-        tag.writePage(132, new byte[]{(byte) 0x5F, (byte) 0x00, (byte) 0x00, (byte) 0x00}); // config
+    private static void writeLockInfo(
+            NTAG215 tag, byte[] pages, WriteJournal journal
+    ) throws IOException {
+        int[] lockPages = { 2, 130, 131, 132 };
+        byte[][] lockData = {
+                new byte[]{pages[2 * NfcByte.PAGE_SIZE],
+                        pages[(2 * NfcByte.PAGE_SIZE) + 1], (byte) 0x0F, (byte) 0xE0}, // lock bits
+                new byte[]{(byte) 0x01, (byte) 0x00, (byte) 0x0F, (byte) 0x00},
+                // dynamic lock bits. should the last bit be 0xBD according to the nfc docs though:
+                // Remark: Set all bits marked with RFUI to 0, when writing to the dynamic lock bytes.
+                new byte[]{(byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x04}, // config
+                new byte[]{(byte) 0x5F, (byte) 0x00, (byte) 0x00, (byte) 0x00} // config
+        };
+        for (int i = journal.getLockStep(); i < lockPages.length; i++) {
+            tag.writePage(lockPages[i], lockData[i]);
+            journal.confirmLockStep();
+        }
     }
 
     public static void wipeBankData(NTAG215 mifare, int active_bank)  throws Exception {
-        if (doEliteAuth(mifare, mifare.fastRead(0, 0))) {
-            byte[] tagData = TagUtils.hexToByteArray(new String(
-                    new char[1080]).replace("\u0000", "F"));
-            boolean write = mifare.amiiboFastWrite(0, active_bank, tagData);
-            if (!write) write = mifare.amiiboWrite(0, active_bank, tagData);
-            if (write) {
-                byte[] result = new byte[8];
-                System.arraycopy(tagData, 84, result, 0, result.length);
-                Debug.Info(TagWriter.class, TagUtils.bytesToHex(result));
-            } else {
-                throw new Exception(TagMo.getContext()
-                        .getString(R.string.error_elite_write));
-            }
-        } else {
-            throw new Exception(TagMo.getContext()
-                    .getString(R.string.error_elite_write));
+        wipeBanks(mifare, active_bank, active_bank, null);
+    }
+
+    /**
+     * Erases a range of banks in a single authenticated session. Unless a
+     * full erase is enabled, only the pages from the write counter through
+     * the amiibo id are blanked, which is enough for a bank to list as empty
+     * and fail validation.
+     */
+    public static void wipeBanks(
+            NTAG215 mifare, int firstBank, int lastBank, BankListener listener
+    ) throws Exception {
+        if (!doEliteAuth(mifare, mifare.fastRead(0, 0))) throw new Exception(
+                TagMo.getContext().getString(R.string.error_elite_write));
+        boolean fullErase = TagMo.getPrefs().full_bank_erase().get();
+        int startPage = fullErase ? 0 : BLANK_START_PAGE;
+        byte[] blank = fullErase ? BLANK_BANK : BLANK_ID_PAGES;
+        for (int bank = firstBank; bank <= lastBank; bank++) {
+            if (null != listener) listener.onBankWriting(bank, lastBank + 1);
+            invalidateBank(mifare, bank);
+            boolean write = mifare.amiiboFastWrite(startPage, bank, blank);
+            // A failed exchange can drop the authentication with the tag
+            if (!write && doEliteAuth(mifare, mifare.fastRead(0, 0)))
+                write = mifare.amiiboWrite(startPage, bank, blank);
+            if (!write) throw new Exception(
+                    TagMo.getContext().getString(R.string.error_elite_write));
         }
     }
 
+    /**
+     * Compiles the firmware script in the background
+     */
+    public static void preloadFirmware() {
+        getExecutor().execute(FirmwareScript::preload);
+    }
+
+    /**
+     * Sends the first command of the precompiled firmware script. The update
+     * does not go beyond that command, so this returns false.
+     */
     public static boolean updateFirmware(NTAG215 tag) throws Exception {
         final Context context = TagMo.getContext();
-        byte[] response = new byte[1];
-        response[0] = (byte) 0xFFFF;
         tag.initFirmware();
         tag.getVersion(true);
+        byte[][] commands;
         try {
-            BufferedReader br = new BufferedReader(new InputStreamReader(
-                    context.getResources().openRawResource(R.raw.firmware)));
-            while (true) {
-                String strLine = br.readLine();
-                if (null == strLine) {
-                    break;
-                }
-                String[] parts = strLine.replaceAll("\\s+", " ").split(" ");
-                int i;
-                if (parts.length < 1) {
-                    break;
-                } else if (parts[0].equals("C-APDU")) {
-                    byte[] apdu_buf = new byte[(parts.length - 1)];
-                    for (i = 1; i < parts.length; i++) {
-                        apdu_buf[i - 1] = TagUtils.hexToByte(parts[i]);
-                    }
-                    int sz = apdu_buf[4] & 0xFF;
-                    byte[] iso_cmd = new byte[sz];
-                    if (apdu_buf[4] + 5 <= apdu_buf.length && apdu_buf[4] <= iso_cmd.length) {
-                        for (i = 0; i < sz; i++) {
-                            iso_cmd[i] = apdu_buf[i + 5];
-                        }
-                        boolean done = false;
-                        for (i = 0; i < 10; i++) {
-                            response = tag.transceive(iso_cmd);
-                            if (null != response) {
-                                done = true;
-                                break;
-                            }
-                        }
-                        if (!done) {
-                            throw new Exception(context.getString(R.string.firmware_failed, 1));
-                        }
-                    }
-                    return false;
-                } else if (parts[0].equals("C-RPDU")) {
-                    byte[] rpdu_buf = new byte[(parts.length - 1)];
-                    if (response.length != parts.length - 3) {
-                        throw new Exception(context.getString(R.string.firmware_failed, 2));
-                    }
-                    for (i = 1; i < parts.length; i++) {
-                        rpdu_buf[i - 1] = TagUtils.hexToByte(parts[i]);
-                    }
-                    for (i = 0; i < rpdu_buf.length - 2; i++) {
-                        if (rpdu_buf[i] != response[i]) {
-                            throw new Exception(context.getString(R.string.firmware_failed, 3));
-                        }
-                    }
-                } /* else if (!parts[0].equals("RESET") && parts[0].equals("LOGIN")) { } */
-            }
-            br.close();
-            return true;
+            commands = FirmwareScript.get().getCommands();
         } catch (IOException e) {
             throw new Exception(context.getString(R.string.firmware_failed, 4));
         }
+        if (commands.length == 0) return false;
+        byte[] command = commands[0];
+        byte[] response = null;
+        for (int i = 0; i < 10 && null == response; i++) {
+            if (i > 0 && command.length > 0) tag.recordRetry(command[0] & 0xFF);
+            response = tag.transceive(command);
+        }
+        if (null == response) {
+            throw new Exception(context.getString(R.string.firmware_failed, 1));
+        }
+        return false;
     }
 }
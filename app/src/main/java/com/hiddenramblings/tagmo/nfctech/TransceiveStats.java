@@ -0,0 +1,206 @@
+package com.hiddenramblings.tagmo.nfctech;
+
+import android.os.Build;
+
+import com.hiddenramblings.tagmo.TagMo;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-command counts, latency histograms and errors for each tag session
+ */
+public class TransceiveStats {
+
+    private static final int MAX_SESSIONS = 20;
+    private static final long[] BUCKETS_MS = { 2, 5, 10, 20, 50, 100, 250, 500, 1000 };
+    private static final ArrayList<TransceiveStats> sessions = new ArrayList<>();
+
+    private final String technology;
+    private final int maxTransceiveLength;
+    private final long started = System.currentTimeMillis();
+    private final TreeMap<Integer, Command> commands = new TreeMap<>();
+
+    private static class Command {
+        int count;
+        int failures;
+        int retries;
+        long bytesSent;
+        long bytesReceived;
+        long totalNanos;
+        long maxNanos;
+        final int[] histogram = new int[BUCKETS_MS.length + 1];
+        final TreeMap<String, Integer> errors = new TreeMap<>();
+    }
+
+    private TransceiveStats(String technology, int maxTransceiveLength) {
+        this.technology = technology;
+        this.maxTransceiveLength = maxTransceiveLength;
+    }
+
+    /**
+     * Returns a new session if metrics are enabled, otherwise null
+     */
+    static TransceiveStats startSession(String technology, int maxTransceiveLength) {
+        if (!TagMo.getPrefs().enable_nfc_metrics().get()) return null;
+        TransceiveStats stats = new TransceiveStats(technology, maxTransceiveLength);
+        synchronized (sessions) {
+            if (sessions.size() == MAX_SESSIONS) sessions.remove(0);
+            sessions.add(stats);
+        }
+        return stats;
+    }
+
+    static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a completed exchange. A null response or a lone NAK nibble
+     * counts as a failure, as does a non-null error.
+     */
+    synchronized void record(int opcode, int sent, byte[] response, long startNanos, String error) {
+        long elapsed = now() - startNanos;
+        Command command = commands.get(opcode);
+        if (null == command) {
+            command = new Command();
+            commands.put(opcode, command);
+        }
+        command.count += 1;
+        command.bytesSent += sent;
+        command.totalNanos += elapsed;
+        command.maxNanos = Math.max(command.maxNanos, elapsed);
+        long elapsedMs = elapsed / 1000000L;
+        int bucket = 0;
+        while (bucket < BUCKETS_MS.length && elapsedMs >= BUCKETS_MS[bucket]) bucket++;
+        command.histogram[bucket] += 1;
+        if (null == error && null != response && response.length == 1
+                && (response[0] & 0x0F) != 0x0A) {
+            error = String.format(Locale.ROOT, "NAK %X", response[0] & 0x0F);
+        } else if (null == error && null == response) {
+            error = "null";
+        }
+        if (null != response) command.bytesReceived += response.length;
+        if (null != error) {
+            command.failures += 1;
+            Integer errors = command.errors.get(error);
+            command.errors.put(error, null != errors ? errors + 1 : 1);
+        }
+    }
+
+    /**
+     * Records that a failed exchange is being sent again
+     */
+    synchronized void recordRetry(int opcode) {
+        Command command = commands.get(opcode);
+        if (null == command) {
+            command = new Command();
+            commands.put(opcode, command);
+        }
+        command.retries += 1;
+    }
+
+    private static String getName(int opcode) {
+        switch (opcode) {
+            case NfcByte.CMD_GET_VERSION:
+                return "GET_VERSION";
+            case NfcByte.CMD_READ:
+                return "READ";
+            case NfcByte.CMD_FAST_READ:
+                return "FAST_READ";
+            case NfcByte.CMD_WRITE:
+                return "WRITE";
+            case NfcByte.CMD_COMP_WRITE:
+                return "COMP_WRITE";
+            case NfcByte.CMD_READ_CNT:
+                return "READ_CNT";
+            case NfcByte.CMD_PWD_AUTH:
+                return "PWD_AUTH";
+            case NfcByte.CMD_READ_SIG:
+                return "READ_SIG";
+            case NfcByte.N2_GET_VERSION:
+                return "N2_GET_VERSION";
+            case NfcByte.N2_ACTIVATE_BANK:
+                return "N2_ACTIVATE_BANK";
+            case NfcByte.N2_FAST_READ:
+                return "N2_FAST_READ";
+            case NfcByte.N2_FAST_WRITE:
+                return "N2_FAST_WRITE";
+            case NfcByte.N2_LOCK:
+                return "N2_LOCK";
+            case NfcByte.N2_READ_SIG:
+                return "N2_READ_SIG";
+            case NfcByte.N2_SET_BANKCOUNT:
+                return "N2_SET_BANKCOUNT";
+            case NfcByte.N2_UNLOCK_1:
+                return "N2_UNLOCK_1";
+            case NfcByte.N2_UNLOCK_2:
+                return "N2_UNLOCK_2";
+            case NfcByte.N2_WRITE:
+                return "N2_WRITE";
+            case NfcByte.SECTOR_SELECT:
+                return "SECTOR_SELECT";
+            default:
+                return String.format(Locale.ROOT, "0x%02X", opcode);
+        }
+    }
+
+    private synchronized void appendTo(StringBuilder report, String separator) {
+        report.append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ROOT)
+                .format(new Date(started)));
+        report.append(" ").append(technology);
+        report.append(" (max ").append(maxTransceiveLength).append(" bytes)");
+        report.append(separator);
+        for (Map.Entry<Integer, Command> entry : commands.entrySet()) {
+            Command command = entry.getValue();
+            report.append(String.format(Locale.ROOT,
+                    "  %s: %d sent, %d failed, %d retried, %d/%d bytes, avg %.1f ms, max %.1f ms",
+                    getName(entry.getKey()), command.count, command.failures, command.retries,
+                    command.bytesSent, command.bytesReceived,
+                    command.count > 0 ? command.totalNanos / 1000000.0 / command.count : 0.0,
+                    command.maxNanos / 1000000.0));
+            report.append(separator).append("    ");
+            for (int i = 0; i < command.histogram.length; i++) {
+                if (command.histogram[i] == 0) continue;
+                report.append(i < BUCKETS_MS.length ? "<" + BUCKETS_MS[i] : ">="
+                        + BUCKETS_MS[BUCKETS_MS.length - 1]);
+                report.append("ms:").append(command.histogram[i]).append(" ");
+            }
+            for (Map.Entry<String, Integer> error : command.errors.entrySet()) {
+                report.append("[").append(error.getKey()).append(" x")
+                        .append(error.getValue()).append("] ");
+            }
+            report.append(separator);
+        }
+    }
+
+    public static boolean hasSessions() {
+        synchronized (sessions) {
+            return !sessions.isEmpty();
+        }
+    }
+
+    /**
+     * Plain text summary of the recorded sessions, most recent last
+     */
+    public static String getReport(String separator) {
+        StringBuilder report = new StringBuilder();
+        report.append(Build.MANUFACTURER).append(" ").append(Build.MODEL).append(separator);
+        synchronized (sessions) {
+            for (TransceiveStats stats : sessions) {
+                stats.appendTo(report, separator);
+            }
+        }
+        return report.toString();
+    }
+
+    public static void clear() {
+        synchronized (sessions) {
+            sessions.clear();
+        }
+    }
+}
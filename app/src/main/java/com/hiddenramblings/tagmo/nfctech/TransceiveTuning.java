@@ -0,0 +1,230 @@
+package com.hiddenramblings.tagmo.nfctech;
+
+import android.os.Build;
+
+import com.hiddenramblings.tagmo.TagMo;
+import com.hiddenramblings.tagmo.eightbit.io.Debug;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Transfer windows and timeout for the reader of this device model. In
+ * adaptive mode windows grow after a run of successes, shrink after a
+ * failure and are remembered, and the timeout follows observed latency.
+ */
+public class TransceiveTuning {
+
+    enum Window {
+        READ("read", NfcByte.CMD_FAST_READ),
+        ELITE_READ("elite_read", NfcByte.N2_FAST_READ),
+        ELITE_WRITE("elite_write", NfcByte.N2_FAST_WRITE);
+
+        final String key;
+        final int opcode;
+
+        Window(String key, int opcode) {
+            this.key = key;
+            this.opcode = opcode;
+        }
+    }
+
+    private static final int DEFAULT_TIMEOUT = 618;
+    private static final int MIN_TIMEOUT = 100;
+    private static final int TIMEOUT_FACTOR = 4;
+    private static final int TIMEOUT_SAMPLES = 16;
+    private static final int PROBE_AFTER = 8;
+    // The N2 firmware accepts at most 16 bytes per FAST_WRITE
+    private static final int N2_FAST_WRITE_PAGES = 4;
+    private static final String KEY_TIMEOUT = "timeout";
+
+    // Adaptive tunings per reader, stored when the session ends
+    private static final HashMap<String, TransceiveTuning> tunings = new HashMap<>();
+
+    private final String key;
+    private final boolean adaptive;
+    private final int defaultTimeout;
+    private final int[] limits = new int[Window.values().length];
+    private final int[] windows = new int[Window.values().length];
+    private final int[] streaks = new int[Window.values().length];
+    private int timeout;
+    private boolean changed;
+    private int samples;
+    private long maxLatencyNanos;
+
+    private TransceiveTuning(TagTransport transport, boolean adaptive) {
+        this.key = getKey(transport);
+        this.adaptive = adaptive;
+        int maxTransceiveLength = transport.getMaxTransceiveLength();
+        int timeout = transport.getTimeout();
+        this.defaultTimeout = timeout > 0 ? timeout : DEFAULT_TIMEOUT;
+
+        // Leave room for the CRC the controller appends to each response
+        limits[Window.READ.ordinal()] = Math.max(1, (maxTransceiveLength - 2) / NfcByte.PAGE_SIZE);
+        limits[Window.ELITE_READ.ordinal()] = limits[Window.READ.ordinal()];
+        // N2 FAST_WRITE has a four byte header
+        limits[Window.ELITE_WRITE.ordinal()] = Math.max(1, Math.min(
+                N2_FAST_WRITE_PAGES, (maxTransceiveLength - 4) / NfcByte.PAGE_SIZE));
+
+        int defaultReadPages = Math.max(1, Math.min(
+                limits[Window.READ.ordinal()], (maxTransceiveLength / 4 + 1) / 4 - 1));
+        windows[Window.READ.ordinal()] = defaultReadPages;
+        windows[Window.ELITE_READ.ordinal()] = defaultReadPages;
+        windows[Window.ELITE_WRITE.ordinal()] = limits[Window.ELITE_WRITE.ordinal()];
+    }
+
+    private static String getKey(TagTransport transport) {
+        return Build.MODEL + "/" + transport.getName();
+    }
+
+    static TransceiveTuning get(TagTransport transport) {
+        if (!TagMo.getPrefs().enable_adaptive_nfc().get())
+            return new TransceiveTuning(transport, false);
+        synchronized (tunings) {
+            TransceiveTuning tuning = tunings.get(getKey(transport));
+            if (null == tuning) {
+                tuning = new TransceiveTuning(transport, true);
+                tuning.load();
+                tunings.put(tuning.key, tuning);
+            } else {
+                tuning.restart();
+            }
+            return tuning;
+        }
+    }
+
+    public static void reset() {
+        synchronized (tunings) {
+            tunings.clear();
+        }
+        TagMo.getPrefs().nfc_transceive_tuning().remove();
+    }
+
+    /**
+     * Stores what the connections since the last commit learned
+     */
+    public static void commitAll() {
+        synchronized (tunings) {
+            for (TransceiveTuning tuning : tunings.values()) {
+                tuning.commit();
+            }
+        }
+    }
+
+    /**
+     * Starts a new connection with the windows and timeout learned so far
+     */
+    private void restart() {
+        Arrays.fill(streaks, 0);
+        samples = 0;
+        maxLatencyNanos = 0;
+    }
+
+    boolean isAdaptive() {
+        return adaptive;
+    }
+
+    int getPages(Window window) {
+        return windows[window.ordinal()];
+    }
+
+    /**
+     * The tuned timeout, or 0 to keep the default of the reader
+     */
+    int getTimeout() {
+        return timeout;
+    }
+
+    void onSuccess(Window window, int pages) {
+        if (!adaptive) return;
+        int index = window.ordinal();
+        if (pages < windows[index] || windows[index] >= limits[index]) return;
+        streaks[index] += 1;
+        if (streaks[index] >= PROBE_AFTER) {
+            streaks[index] = 0;
+            windows[index] = Math.min(limits[index], windows[index] * 2);
+            changed = true;
+        }
+    }
+
+    /**
+     * Halves the window for the rest of this connection and, in adaptive
+     * mode, for the connections that follow
+     */
+    void onFailure(Window window, int pages) {
+        int index = window.ordinal();
+        streaks[index] = 0;
+        windows[index] = Math.max(1, Math.min(windows[index], pages / 2));
+        if (adaptive) changed = true;
+    }
+
+    /**
+     * Returns the timeout to apply after an exchange completed, or 0 if it
+     * is unchanged
+     */
+    int onLatency(long nanos) {
+        if (!adaptive) return 0;
+        samples += 1;
+        if (nanos <= maxLatencyNanos && samples != TIMEOUT_SAMPLES) return 0;
+        maxLatencyNanos = Math.max(maxLatencyNanos, nanos);
+        if (samples < TIMEOUT_SAMPLES) return 0;
+        int tuned = (int) Math.max(MIN_TIMEOUT, Math.min(defaultTimeout,
+                maxLatencyNanos * TIMEOUT_FACTOR / 1000000L));
+        if (tuned == timeout) return 0;
+        timeout = tuned;
+        changed = true;
+        return timeout;
+    }
+
+    /**
+     * Returns the timeout to apply after an exchange failed, or 0 if it
+     * is unchanged
+     */
+    int onError() {
+        if (!adaptive || timeout == 0 || timeout >= defaultTimeout) return 0;
+        timeout = Math.min(defaultTimeout, timeout * 2);
+        changed = true;
+        return timeout;
+    }
+
+    private void commit() {
+        if (!changed) return;
+        changed = false;
+        save();
+    }
+
+    private void load() {
+        String stored = TagMo.getPrefs().nfc_transceive_tuning().get();
+        if (stored.isEmpty()) return;
+        try {
+            JSONObject tuning = new JSONObject(stored).optJSONObject(key);
+            if (null == tuning) return;
+            for (Window window : Window.values()) {
+                int pages = tuning.optInt(window.key, 0);
+                if (pages > 0) windows[window.ordinal()] = Math.min(limits[window.ordinal()], pages);
+            }
+            timeout = Math.min(defaultTimeout, tuning.optInt(KEY_TIMEOUT, 0));
+        } catch (JSONException e) {
+            Debug.Warn(e);
+        }
+    }
+
+    private void save() {
+        try {
+            String stored = TagMo.getPrefs().nfc_transceive_tuning().get();
+            JSONObject devices = stored.isEmpty() ? new JSONObject() : new JSONObject(stored);
+            JSONObject tuning = new JSONObject();
+            for (Window window : Window.values()) {
+                tuning.put(window.key, windows[window.ordinal()]);
+            }
+            tuning.put(KEY_TIMEOUT, timeout);
+            devices.put(key, tuning);
+            TagMo.getPrefs().nfc_transceive_tuning().put(devices.toString());
+        } catch (JSONException e) {
+            Debug.Warn(e);
+        }
+    }
+}
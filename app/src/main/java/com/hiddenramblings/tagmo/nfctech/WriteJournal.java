@@ -0,0 +1,93 @@
+package com.hiddenramblings.tagmo.nfctech;
+
+import java.util.Arrays;
+
+/**
+ * Checkpoint of the last interrupted write, so that presenting the same
+ * tag again resumes the write instead of starting over
+ */
+class WriteJournal {
+
+    static final int STAGE_DATA = 0;
+    static final int STAGE_PASSWORD = 1;
+    static final int STAGE_LOCK = 2;
+
+    // Index of the lock sequence step that enables password protection
+    static final int LOCK_STEP_AUTH0 = 2;
+
+    private static WriteJournal pending;
+
+    private final String uid;
+    private final byte[] tagData;
+    private int stage = STAGE_DATA;
+    private int confirmedPage = -1;
+    private int lockStep = 0;
+    private boolean resumed;
+
+    private WriteJournal(String uid, byte[] tagData) {
+        this.uid = uid;
+        this.tagData = tagData;
+    }
+
+    /**
+     * Returns the pending journal if it was writing the same data to the
+     * same tag, otherwise starts a new one
+     */
+    static synchronized WriteJournal open(NTAG215 tag, byte[] tagData) {
+        String uid = null != tag.getUid() ? TagUtils.bytesToHex(tag.getUid()) : null;
+        if (null != pending && null != uid && uid.equals(pending.uid)
+                && Arrays.equals(pending.tagData, tagData)) {
+            pending.resumed = true;
+            return pending;
+        }
+        pending = new WriteJournal(uid, tagData);
+        return pending;
+    }
+
+    static synchronized void close(WriteJournal journal) {
+        if (pending == journal) pending = null;
+    }
+
+    boolean isResumed() {
+        return resumed;
+    }
+
+    int getStage() {
+        return stage;
+    }
+
+    void setStage(int stage) {
+        this.stage = stage;
+    }
+
+    int getConfirmedPage() {
+        return confirmedPage;
+    }
+
+    void confirmPage(int page) {
+        confirmedPage = page;
+    }
+
+    int getLockStep() {
+        return lockStep;
+    }
+
+    void confirmLockStep() {
+        lockStep += 1;
+    }
+
+    /**
+     * The lock bytes may already be set, so the tag is no longer blank
+     */
+    boolean isLocking() {
+        return stage == STAGE_LOCK;
+    }
+
+    /**
+     * AUTH0 may already protect the remaining pages if its write was
+     * confirmed or interrupted before it could be
+     */
+    boolean needsAuth() {
+        return stage == STAGE_LOCK && lockStep >= LOCK_STEP_AUTH0;
+    }
+}
@@ -9,6 +9,8 @@ import com.hiddenramblings.tagmo.TagMo;
 import com.hiddenramblings.tagmo.amiibo.Amiibo;
 import com.hiddenramblings.tagmo.amiibo.AmiiboFile;
 import com.hiddenramblings.tagmo.amiibo.AmiiboManager;
+import com.hiddenramblings.tagmo.amiibo.AmiiboQuery;
+import com.hiddenramblings.tagmo.amiibo.AmiiboSearch;
 import com.hiddenramblings.tagmo.amiibo.AmiiboSeries;
 import com.hiddenramblings.tagmo.amiibo.AmiiboType;
 import com.hiddenramblings.tagmo.amiibo.Character;
@@ -18,6 +20,7 @@ import com.hiddenramblings.tagmo.eightbit.os.Storage;
 import com.hiddenramblings.tagmo.nfctech.TagUtils;
 
 import java.io.File;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Optional;
@@ -96,6 +99,16 @@ public class BrowserSettings implements Parcelable {
     protected ArrayList<BrowserSettingsListener> listeners = new ArrayList<>();
     protected AmiiboManager amiiboManager;
     protected GamesManager gamesManager;
+    protected AmiiboSearch amiiboSearch;
+    private AmiiboQuery.Predicate compiledQuery;
+    private AmiiboManager compiledManager;
+    private GamesManager compiledGames;
+    private String compiledText;
+    private String compiledGameSeries;
+    private String compiledCharacter;
+    private String compiledAmiiboSeries;
+    private String compiledAmiiboType;
+    private String compiledGameTitles;
     protected BrowserSettings oldBrowserSettings;
 
     protected ArrayList<AmiiboFile> amiiboFiles = new ArrayList<>();
@@ -186,6 +199,13 @@ public class BrowserSettings implements Parcelable {
         this.amiiboManager = amiiboManager;
     }
 
+    public synchronized AmiiboSearch getAmiiboSearch() {
+        if (null == this.amiiboManager) return null;
+        if (null == this.amiiboSearch || !this.amiiboSearch.isIndexOf(this.amiiboManager))
+            this.amiiboSearch = new AmiiboSearch(this.amiiboManager);
+        return this.amiiboSearch;
+    }
+
     public GamesManager getGamesManager() {
         return this.gamesManager;
     }
@@ -473,7 +493,69 @@ public class BrowserSettings implements Parcelable {
                 previous.getFilter(FILTER.GAME_TITLES));
     }
 
+    private static AmiiboQuery.Predicate and(
+            AmiiboQuery.Predicate first, AmiiboQuery.Predicate second) {
+        if (first == AmiiboQuery.MATCH_ALL) return second;
+        if (second == AmiiboQuery.MATCH_ALL) return first;
+        return amiiboId -> first.matches(amiiboId) && second.matches(amiiboId);
+    }
+
+    /**
+     * Filters and query are compiled together once per change. Callers that
+     * match many items compile once per pass and pass the predicate along.
+     */
+    public synchronized AmiiboQuery.Predicate getCompiledQuery(String query) {
+        if (null == amiiboManager) return null;
+        if (null != compiledQuery && compiledManager == amiiboManager
+                && compiledGames == gamesManager && query.equals(compiledText)
+                && equals(filterGameSeries, compiledGameSeries)
+                && equals(filterCharacter, compiledCharacter)
+                && equals(filterAmiiboSeries, compiledAmiiboSeries)
+                && equals(filterAmiiboType, compiledAmiiboType)
+                && equals(filterGameTitles, compiledGameTitles))
+            return compiledQuery;
+
+        AmiiboQuery.Predicate predicate;
+        try {
+            predicate = AmiiboQuery.compile(amiiboManager, gamesManager, query);
+        } catch (ParseException e) {
+            predicate = AmiiboQuery.compileText(amiiboManager, query);
+        }
+        predicate = and(AmiiboQuery.compileFilter(amiiboManager, gamesManager,
+                AmiiboQuery.Field.GAME, filterGameSeries), predicate);
+        predicate = and(AmiiboQuery.compileFilter(amiiboManager, gamesManager,
+                AmiiboQuery.Field.CHARACTER, filterCharacter), predicate);
+        predicate = and(AmiiboQuery.compileFilter(amiiboManager, gamesManager,
+                AmiiboQuery.Field.SERIES, filterAmiiboSeries), predicate);
+        predicate = and(AmiiboQuery.compileFilter(amiiboManager, gamesManager,
+                AmiiboQuery.Field.TYPE, filterAmiiboType), predicate);
+        predicate = and(AmiiboQuery.compileFilter(amiiboManager, gamesManager,
+                AmiiboQuery.Field.TITLE, filterGameTitles), predicate);
+
+        compiledManager = amiiboManager;
+        compiledGames = gamesManager;
+        compiledText = query;
+        compiledGameSeries = filterGameSeries;
+        compiledCharacter = filterCharacter;
+        compiledAmiiboSeries = filterAmiiboSeries;
+        compiledAmiiboType = filterAmiiboType;
+        compiledGameTitles = filterGameTitles;
+        compiledQuery = predicate;
+        return predicate;
+    }
+
     public boolean amiiboContainsQuery(Amiibo amiibo, String query) {
+        return amiiboContainsQuery(amiibo, query, getCompiledQuery(query));
+    }
+
+    /**
+     * @param predicate The result of {@link #getCompiledQuery(String)} for the same query
+     */
+    public boolean amiiboContainsQuery(
+            Amiibo amiibo, String query, AmiiboQuery.Predicate predicate
+    ) {
+        if (null != predicate) return predicate.matches(amiibo.id);
+
         GameSeries gameSeries = amiibo.getGameSeries();
         if (!Amiibo.matchesGameSeriesFilter(gameSeries, getFilter(FILTER.GAME_SERIES)))
             return false;
@@ -29,12 +29,18 @@ public interface Preferences {
     @DefaultBoolean(true)
     boolean enable_tag_type_validation();
 
+    @DefaultBoolean(false)
+    boolean enable_write_verification();
+
     @DefaultBoolean(true)
     boolean enable_automatic_scan();
 
     @DefaultBoolean(false)
     boolean settings_disable_foomiibo();
 
+    @DefaultBoolean(false)
+    boolean enable_fuzzy_search();
+
     @DefaultString(SettingsFragment.IMAGE_NETWORK_ALWAYS)
     String image_network_settings();
 
@@ -47,9 +53,21 @@ public interface Preferences {
     @DefaultString("")
     String settings_elite_signature();
 
+    @DefaultBoolean(true)
+    boolean full_bank_erase();
+
     @DefaultBoolean(false)
     boolean settings_disable_debug();
 
+    @DefaultBoolean(false)
+    boolean enable_nfc_metrics();
+
+    @DefaultBoolean(false)
+    boolean enable_adaptive_nfc();
+
+    @DefaultString("")
+    String nfc_transceive_tuning();
+
     String browserRootFolder();
 
     String browserRootDocument();
@@ -29,6 +29,8 @@ import com.hiddenramblings.tagmo.amiibo.KeyManager;
 import com.hiddenramblings.tagmo.browser.BrowserActivity;
 import com.hiddenramblings.tagmo.eightbit.io.Debug;
 import com.hiddenramblings.tagmo.eightbit.material.IconifiedSnackbar;
+import com.hiddenramblings.tagmo.nfctech.TransceiveStats;
+import com.hiddenramblings.tagmo.nfctech.TransceiveTuning;
 import com.hiddenramblings.tagmo.widget.Toasty;
 
 import org.json.JSONException;
@@ -107,6 +109,17 @@ public class SettingsFragment extends PreferenceFragmentCompat {
             });
         }
 
+        CheckBoxPreference enableWriteVerification = findPreference(
+                getString(R.string.settings_write_verification)
+        );
+        if (null != enableWriteVerification) {
+            enableWriteVerification.setChecked(prefs.enable_write_verification().get());
+            enableWriteVerification.setOnPreferenceClickListener(preference -> {
+                prefs.enable_write_verification().put(enableWriteVerification.isChecked());
+                return SettingsFragment.super.onPreferenceTreeClick(preference);
+            });
+        }
+
         CheckBoxPreference enableAutomaticScan = findPreference(
                 getString(R.string.settings_enable_automatic_scan)
         );
@@ -142,6 +155,17 @@ public class SettingsFragment extends PreferenceFragmentCompat {
             });
         }
 
+        CheckBoxPreference enableFuzzySearch = findPreference(
+                getString(R.string.settings_enable_fuzzy_search)
+        );
+        if (null != enableFuzzySearch) {
+            enableFuzzySearch.setChecked(prefs.enable_fuzzy_search().get());
+            enableFuzzySearch.setOnPreferenceClickListener(preference -> {
+                prefs.enable_fuzzy_search().put(enableFuzzySearch.isChecked());
+                return SettingsFragment.super.onPreferenceTreeClick(preference);
+            });
+        }
+
         CheckBoxPreference enablePowerTagSupport = findPreference(
                 getString(R.string.settings_enable_power_tag_support)
         );
@@ -179,6 +203,17 @@ public class SettingsFragment extends PreferenceFragmentCompat {
             });
         }
 
+        CheckBoxPreference fullBankErase = findPreference(
+                getString(R.string.settings_full_bank_erase)
+        );
+        if (null != fullBankErase) {
+            fullBankErase.setChecked(prefs.full_bank_erase().get());
+            fullBankErase.setOnPreferenceClickListener(preference -> {
+                prefs.full_bank_erase().put(fullBankErase.isChecked());
+                return SettingsFragment.super.onPreferenceTreeClick(preference);
+            });
+        }
+
         Preference syncInfo = findPreference(getString(R.string.settings_import_info_amiiboapi));
         if (null != syncInfo) {
             syncInfo.setOnPreferenceClickListener(preference -> {
@@ -224,6 +259,40 @@ public class SettingsFragment extends PreferenceFragmentCompat {
                 return SettingsFragment.super.onPreferenceTreeClick(preference);
             });
         }
+
+        CheckBoxPreference enableNfcMetrics = findPreference(
+                getString(R.string.settings_enable_nfc_metrics)
+        );
+        if (null != enableNfcMetrics) {
+            enableNfcMetrics.setChecked(prefs.enable_nfc_metrics().get());
+            enableNfcMetrics.setOnPreferenceClickListener(preference -> {
+                prefs.enable_nfc_metrics().put(enableNfcMetrics.isChecked());
+                if (!enableNfcMetrics.isChecked()) TransceiveStats.clear();
+                return SettingsFragment.super.onPreferenceTreeClick(preference);
+            });
+        }
+
+        Preference exportNfcMetrics = findPreference(
+                getString(R.string.settings_export_nfc_metrics)
+        );
+        if (null != exportNfcMetrics) {
+            exportNfcMetrics.setOnPreferenceClickListener(preference -> {
+                Debug.processNfcMetrics(requireContext());
+                return SettingsFragment.super.onPreferenceTreeClick(preference);
+            });
+        }
+
+        CheckBoxPreference enableAdaptiveNfc = findPreference(
+                getString(R.string.settings_enable_adaptive_nfc)
+        );
+        if (null != enableAdaptiveNfc) {
+            enableAdaptiveNfc.setChecked(prefs.enable_adaptive_nfc().get());
+            enableAdaptiveNfc.setOnPreferenceClickListener(preference -> {
+                prefs.enable_adaptive_nfc().put(enableAdaptiveNfc.isChecked());
+                if (!enableAdaptiveNfc.isChecked()) TransceiveTuning.reset();
+                return SettingsFragment.super.onPreferenceTreeClick(preference);
+            });
+        }
     }
 
     private void onImportKeysClicked() {
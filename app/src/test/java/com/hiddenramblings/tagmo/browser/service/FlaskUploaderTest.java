@@ -0,0 +1,247 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+public class FlaskUploaderTest {
+
+    private static final UUID TX = UUID.randomUUID();
+    private static final int DUMP_SIZE = 540;
+    // One packet per 7.5 ms connection event
+    private static final long PACKET_TIME = 8L;
+    // Time for the firmware to evaluate a line
+    private static final long EVALUATE_TIME = 20L;
+
+    /**
+     * A Flask that evaluates each tag call and prints the result to its
+     * console, taking the frames after startBinaryUpload as raw data
+     */
+    private static class SimulatedFlask implements SimulatedPeer.Device {
+
+        private final VirtualScheduler scheduler;
+        private final boolean binary;
+        private FlaskConsole console;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream upload = new ByteArrayOutputStream();
+        private String binaryCall;
+        private int binaryLength;
+        private int binaryCrc;
+        private int sequence;
+        private boolean framesValid;
+        private int rejections;
+        final List<String> calls = new ArrayList<>();
+        final Map<String, byte[]> saved = new HashMap<>();
+
+        SimulatedFlask(VirtualScheduler scheduler, boolean binary) {
+            this.scheduler = scheduler;
+            this.binary = binary;
+        }
+
+        void setConsole(FlaskConsole console) {
+            this.console = console;
+        }
+
+        void reject(int count) {
+            rejections = count;
+        }
+
+        @Override
+        public void onWrite(UUID characteristic, byte[] value) {
+            if (null != binaryCall) {
+                onFrame(value);
+                return;
+            }
+            for (byte b : value) {
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+                String call = new String(line.toByteArray(), StandardCharsets.UTF_8);
+                line.reset();
+                calls.add(call);
+                if (binary && call.startsWith("tag.startBinaryUpload(")) {
+                    String[] args = argument(call).split(",");
+                    binaryCall = call;
+                    binaryLength = Integer.parseInt(args[0]);
+                    binaryCrc = Integer.parseInt(args[1]);
+                    sequence = 0;
+                    framesValid = true;
+                    upload.reset();
+                } else {
+                    print(call, evaluate(call));
+                }
+            }
+        }
+
+        private void onFrame(byte[] frame) {
+            int length = frame[1] & 0xFF;
+            int crc = ((frame[2 + length] & 0xFF) << 8) | (frame[3 + length] & 0xFF);
+            framesValid &= (frame[0] & 0xFF) == sequence
+                    && crc == BinaryUpload.crc16(frame, 0, 2 + length);
+            sequence = (sequence + 1) & 0xFF;
+            upload.write(frame, 2, length);
+            if (upload.size() >= binaryLength) {
+                print(binaryCall, "undefined");
+                binaryCall = null;
+            }
+        }
+
+        private String evaluate(String call) {
+            if (call.equals("tag." + FlaskUploader.BINARY_PROBE)) {
+                return String.valueOf(binary);
+            } else if (call.startsWith("tag.startTagUpload(")) {
+                upload.reset();
+            } else if (call.startsWith("tag.tagUploadChunk(")) {
+                byte[] chunk = Base64.getDecoder().decode(argument(call));
+                upload.write(chunk, 0, chunk.length);
+            } else if (call.startsWith("tag.saveUploadedTag(")) {
+                saved.put(argument(call), upload.toByteArray());
+            } else if (call.startsWith("tag.finishBinaryUpload(")) {
+                byte[] data = upload.toByteArray();
+                boolean verified = framesValid && rejections == 0
+                        && binaryCrc == BinaryUpload.crc16(data, 0, data.length);
+                if (rejections > 0) rejections -= 1;
+                if (verified) saved.put(argument(call), data);
+                return String.valueOf(verified);
+            } else if (call.startsWith("tag.getList()")) {
+                return "[\"" + String.join("\",\"", saved.keySet()) + "\"]";
+            }
+            return "undefined";
+        }
+
+        private static String argument(String call) {
+            return call.substring(call.indexOf('(') + 1, call.lastIndexOf(')'))
+                    .replace("\"", "");
+        }
+
+        /**
+         * Echoes the call and its result, in notifications of 20 bytes
+         */
+        private void print(String call, String result) {
+            String output = call + "\r\n=" + result + "\r\n>";
+            scheduler.postDelayed(() -> {
+                for (int i = 0; i < output.length(); i += 20) {
+                    console.append(output.substring(i, Math.min(output.length(), i + 20)));
+                }
+            }, EVALUATE_TIME);
+        }
+    }
+
+    private VirtualScheduler scheduler;
+    private SimulatedFlask flask;
+    private SimulatedPeer peer;
+    private FlaskUploader uploader;
+    private final List<String> responses = new ArrayList<>();
+
+    private void connect(int mtu, boolean binary) {
+        scheduler = new VirtualScheduler();
+        flask = new SimulatedFlask(scheduler, binary);
+        GattQueue queue = new GattQueue(scheduler, new GattQueue.Listener() {
+            @Override
+            public void onOperationDropped(int type) { }
+
+            @Override
+            public void onBurstComplete(
+                    int packets, int bytes, long elapsed, int retries, int dropped
+            ) { }
+        });
+        GattTransport transport = new GattTransport(queue);
+        transport.setCharacteristicTX(TX);
+        peer = new SimulatedPeer(scheduler, queue, PACKET_TIME);
+        peer.setDevice(flask);
+        queue.setPeer(peer);
+        uploader = new FlaskUploader(transport);
+        flask.setConsole(new FlaskConsole(transport, uploader, responses::add));
+        queue.requestMtu(mtu);
+        uploader.probe();
+        scheduler.run();
+        assertEquals(binary, uploader.isBinaryUpload());
+        peer.getWrites().clear();
+    }
+
+    private static byte[] getDump(long seed) {
+        byte[] dump = new byte[DUMP_SIZE];
+        new Random(seed).nextBytes(dump);
+        return dump;
+    }
+
+    private static String encode(byte[] dump) {
+        return Base64.getEncoder().withoutPadding().encodeToString(dump);
+    }
+
+    private void upload(byte[] dump, String name) {
+        uploader.upload(dump, encode(dump), name);
+    }
+
+    private int countCalls(String prefix) {
+        int count = 0;
+        for (String call : flask.calls) {
+            if (call.startsWith(prefix)) count += 1;
+        }
+        return count;
+    }
+
+    /**
+     * Uploads a dump and returns the virtual time it took, in milliseconds
+     */
+    private long measure(int mtu, boolean binary) {
+        connect(mtu, binary);
+        byte[] dump = getDump(mtu);
+        long start = scheduler.now();
+        upload(dump, "Benchmark|1|0");
+        scheduler.run();
+        assertArrayEquals(dump, flask.saved.get("Benchmark|1|0"));
+        return scheduler.now() - start;
+    }
+
+    @Test
+    public void binaryUploadIsFasterThanScript() {
+        for (int mtu : new int[] { 23, 247 }) {
+            long script = measure(mtu, false);
+            int scriptPackets = peer.getWrites().size();
+            long binary = measure(mtu, true);
+            int binaryPackets = peer.getWrites().size();
+            assertTrue(binary < script);
+            assertTrue(binaryPackets < scriptPackets);
+        }
+    }
+
+    @Test
+    public void rejectedUploadIsResentBeforeCompletion() {
+        connect(23, true);
+        flask.reject(1);
+        byte[] first = getDump(1L);
+        byte[] second = getDump(2L);
+        upload(first, "First|1|0");
+        upload(second, "Second|2|0");
+        uploader.uploadsComplete();
+        scheduler.run();
+
+        assertArrayEquals(first, flask.saved.get("First|1|0"));
+        assertArrayEquals(second, flask.saved.get("Second|2|0"));
+        assertEquals(1, countCalls("tag.uploadsComplete()"));
+        assertEquals(1, countCalls("tag.getList()"));
+        // The fallback follows the rejected dump, ahead of the next one
+        int saved = flask.calls.indexOf("tag.saveUploadedTag(\"First|1|0\")");
+        int next = flask.calls.indexOf("tag.startBinaryUpload(" + DUMP_SIZE + ","
+                + BinaryUpload.crc16(second, 0, second.length) + ")");
+        assertTrue(saved >= 0 && saved < next);
+        assertEquals("tag.getList()", flask.calls.get(flask.calls.size() - 1));
+        assertFalse(uploader.isBinaryUpload());
+        assertTrue(responses.contains("tag.finishBinaryUpload(\"First|1|0\")\r=false\r>"));
+    }
+}
@@ -0,0 +1,139 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+public class GattQueueTest {
+
+    private static final UUID TX = UUID.randomUUID();
+    private static final UUID RX = UUID.randomUUID();
+    private static final UUID CONFIG = UUID.randomUUID();
+
+    private final List<Integer> dropped = new ArrayList<>();
+    private int burstPackets;
+    private int burstRetries;
+    private int burstDropped;
+
+    private final GattQueue.Listener listener = new GattQueue.Listener() {
+        @Override
+        public void onOperationDropped(int type) {
+            dropped.add(type);
+        }
+
+        @Override
+        public void onBurstComplete(
+                int packets, int bytes, long elapsed, int retries, int dropped
+        ) {
+            burstPackets += packets;
+            burstRetries += retries;
+            burstDropped += dropped;
+        }
+    };
+
+    private VirtualScheduler scheduler;
+    private GattQueue queue;
+
+    private SimulatedPeer connect(long operationTime) {
+        SimulatedPeer peer = new SimulatedPeer(scheduler, queue, operationTime);
+        queue.setPeer(peer);
+        return peer;
+    }
+
+    private void write(byte... value) {
+        queue.write(TX, value, BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+    }
+
+    @Before
+    public void setUp() {
+        scheduler = new VirtualScheduler();
+        queue = new GattQueue(scheduler, listener);
+    }
+
+    @Test
+    public void operationsDoNotOverlap() {
+        SimulatedPeer peer = connect(5L);
+        queue.writeDescriptor(RX, CONFIG, new byte[] { 1, 0 });
+        queue.requestMtu(247);
+        queue.read(RX);
+        write((byte) 1);
+        write((byte) 2);
+        write((byte) 3);
+        scheduler.run();
+
+        assertEquals(0, peer.getOverlaps());
+        assertEquals(Arrays.asList("descriptor", "mtu", "read", "write", "write", "write"),
+                peer.getOperations());
+        assertEquals(244, queue.getChunkSize());
+        assertEquals(3, burstPackets);
+    }
+
+    @Test
+    public void busyStackIsRetried() {
+        SimulatedPeer peer = connect(5L);
+        peer.refuse(2);
+        write((byte) 1);
+        scheduler.run();
+
+        assertEquals(1, peer.getWrites().size());
+        assertEquals(2, burstRetries);
+        assertEquals(0, burstDropped);
+        assertEquals(0, dropped.size());
+    }
+
+    @Test
+    public void refusedWriteDropsTheWritesBehindIt() {
+        SimulatedPeer peer = connect(5L);
+        peer.refuse(4);
+        write((byte) 1);
+        write((byte) 2);
+        write((byte) 3);
+        scheduler.run();
+
+        assertEquals(0, peer.getWrites().size());
+        assertEquals(Arrays.asList(GattQueue.WRITE), dropped);
+        assertEquals(3, burstDropped);
+
+        write((byte) 4);
+        scheduler.run();
+        assertEquals(1, peer.getWrites().size());
+        assertEquals(1, burstPackets);
+    }
+
+    @Test
+    public void lateCallbackDoesNotSkipAWrite() {
+        // Slower than the timeout for a write without response
+        SimulatedPeer peer = connect(150L);
+        write((byte) 1);
+        write((byte) 2);
+        write((byte) 3);
+        scheduler.run();
+
+        assertEquals(3, peer.getWrites().size());
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(new byte[] { (byte) (i + 1) }, peer.getWrites().get(i));
+        }
+        assertEquals(0, dropped.size());
+    }
+
+    @Test
+    public void clearResetsTheMtu() {
+        connect(5L);
+        queue.requestMtu(185);
+        scheduler.run();
+        assertEquals(182, queue.getChunkSize());
+
+        queue.clear();
+        scheduler.run();
+        assertEquals(20, queue.getChunkSize());
+    }
+}
@@ -0,0 +1,118 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+public class GattTransportTest {
+
+    private static final UUID TX = UUID.randomUUID();
+
+    private VirtualScheduler scheduler;
+    private GattTransport transport;
+    private SimulatedPeer peer;
+    private final List<String> received = new ArrayList<>();
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private int dropped;
+
+    /**
+     * Answers each command line once all of its chunks arrived
+     */
+    private final SimulatedPeer.Device device = (characteristic, value) -> {
+        for (byte b : value) {
+            if (b == '\n') {
+                received.add(new String(line.toByteArray(), StandardCharsets.UTF_8));
+                line.reset();
+                scheduler.postDelayed(() -> transport.onCommandComplete(), 10L);
+            } else {
+                line.write(b);
+            }
+        }
+    };
+
+    private final GattQueue.Listener listener = new GattQueue.Listener() {
+        @Override
+        public void onOperationDropped(int type) {
+            dropped += 1;
+            if (type == GattQueue.WRITE) {
+                line.reset();
+                transport.onCommandComplete();
+            }
+        }
+
+        @Override
+        public void onBurstComplete(
+                int packets, int bytes, long elapsed, int retries, int dropped
+        ) { }
+    };
+
+    @Before
+    public void setUp() {
+        scheduler = new VirtualScheduler();
+        GattQueue queue = new GattQueue(scheduler, listener);
+        transport = new GattTransport(queue);
+        transport.setCharacteristicTX(TX);
+        peer = new SimulatedPeer(scheduler, queue, 5L);
+        peer.setDevice(device);
+        queue.setPeer(peer);
+    }
+
+    @Test
+    public void eachCommandIsSentOnce() {
+        transport.queueTagCommands(Arrays.asList("getList()", "get()", "uploadsComplete()"),
+                Integer.MAX_VALUE);
+        scheduler.run();
+
+        assertEquals(Arrays.asList("tag.getList()", "tag.get()", "tag.uploadsComplete()"),
+                received);
+        assertEquals(0, transport.getCommandCount());
+        assertEquals(0, peer.getOverlaps());
+    }
+
+    @Test
+    public void promptCommandFollowsTheOneInFlight() {
+        transport.queueTagCommand("getList()", Integer.MAX_VALUE);
+        transport.queueTagCommand("get()", Integer.MAX_VALUE);
+        transport.queueTagCommand("setTag(1)", 0);
+        scheduler.run();
+
+        assertEquals(Arrays.asList("tag.getList()", "tag.setTag(1)", "tag.get()"), received);
+    }
+
+    @Test
+    public void droppedCommandIsReset() {
+        peer.refuse(4);
+        transport.queueTagCommand("getList()", Integer.MAX_VALUE);
+        transport.queueTagCommand("get()", Integer.MAX_VALUE);
+        scheduler.run();
+
+        assertEquals(1, dropped);
+        assertEquals(Arrays.asList("tag.get()"), received);
+        assertEquals(0, transport.getCommandCount());
+    }
+
+    @Test
+    public void writesFitTheMtu() {
+        transport.getQueue().requestMtu(64);
+        scheduler.run();
+        char[] name = new char[200];
+        Arrays.fill(name, 'a');
+        transport.queueTagCommand("setName(" + new String(name) + ")", Integer.MAX_VALUE);
+        scheduler.run();
+
+        assertEquals(1, received.size());
+        for (byte[] write : peer.getWrites()) {
+            assertTrue(write.length <= 61);
+        }
+        assertEquals(4, peer.getWrites().size());
+    }
+}
@@ -0,0 +1,121 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ResponseParserTest {
+
+    private static List<String> parse(String... notifications) {
+        List<String> responses = new ArrayList<>();
+        ResponseParser parser = new ResponseParser(responses::add);
+        for (String notification : notifications) {
+            parser.append(notification);
+        }
+        return responses;
+    }
+
+    /**
+     * Delivers the output in packets of the default BLE size
+     */
+    private static List<String> parseChunked(String output) {
+        List<String> notifications = new ArrayList<>();
+        for (int i = 0; i < output.length(); i += 20) {
+            notifications.add(output.substring(i, Math.min(output.length(), i + 20)));
+        }
+        return parse(notifications.toArray(new String[0]));
+    }
+
+    @Test
+    public void promptEndsResponseAndKeepsCarriageReturns() {
+        String output = "tag.getList()\r\n=[\"Link|1|0\",\"Zelda|2|0\"]\r\n>";
+        List<String> expected = Collections.singletonList(
+                "tag.getList()\r=[\"Link|1|0\",\"Zelda|2|0\"]\r>");
+        assertEquals(expected, parse(output));
+        assertEquals(expected, parseChunked(output));
+    }
+
+    @Test
+    public void downloadKeepsTheShapeItIsSlicedBy() {
+        String output = "tag.download(\"Link|1|0\")\r\n=new Uint8Array([1,2,3])\r\n>";
+        List<String> responses = parseChunked(output);
+        assertEquals(Collections.singletonList(
+                "tag.download(\"Link|1|0\")\r=new Uint8Array([1,2,3])\r>"), responses);
+        // FlaskGattService drops the two characters before the prompt
+        String data = responses.get(0).split("new Uint8Array")[1];
+        assertEquals("[1,2,3]", data.substring(1, data.lastIndexOf(">") - 2));
+    }
+
+    @Test
+    public void lineFeedOnlyOutputIsJoined() {
+        assertEquals(Collections.singletonList("tag.get()={\"name\":\"Link\"}>"),
+                parse("tag.get()\n={\"name\":\"Link\"}\n>"));
+    }
+
+    @Test
+    public void standaloneJsonEventsAreEmittedWithoutAPrompt() {
+        String output = "{\"event\":\"button\",\"name\":\"Link|1|0\"}\r\n"
+                + "{\"event\":\"delete\",\"name\":\"Zelda|2|0\"}\r\n";
+        List<String> expected = Arrays.asList(
+                "{\"event\":\"button\",\"name\":\"Link|1|0\"}",
+                "{\"event\":\"delete\",\"name\":\"Zelda|2|0\"}");
+        assertEquals(expected, parse(output));
+        assertEquals(expected, parseChunked(output));
+    }
+
+    @Test
+    public void bracketsAndPromptsInStringsAreIgnored() {
+        String output = "tag.setTag(\"Link's ]> {bow|1|0\")\r\n"
+                + "={\"name\":\"Toon Link's } >\",'tail':'1'}\r\n>";
+        assertEquals(Collections.singletonList("tag.setTag(\"Link's ]> {bow|1|0\")\r"
+                + "={\"name\":\"Toon Link's } >\",'tail':'1'}\r>"), parseChunked(output));
+    }
+
+    @Test
+    public void escapedQuotesStayInsideTheString() {
+        assertEquals(Collections.singletonList("tag.get()\r={\"name\":\"a\\\"}>b\"}\r>"),
+                parse("tag.get()\r\n={\"name\":\"a\\\"}>b\"}\r\n>"));
+    }
+
+    @Test
+    public void unterminatedStringEndsAtTheLine() {
+        assertEquals(Collections.singletonList("tag.remove(\"Link\r>"),
+                parse("tag.remove(\"Link\r\n>"));
+    }
+
+    @Test
+    public void promptWithinALineDoesNotEndTheResponse() {
+        assertEquals(Collections.singletonList("tag.get()\r=1 > 0\r>"),
+                parse("tag.get()\r\n=1 > 0\r\n>"));
+    }
+
+    @Test
+    public void emptyPromptsAreSkipped() {
+        assertEquals(Collections.singletonList("tag.createBlank()\r>"),
+                parse(">", "\r\n>", "tag.createBlank()\r\n>"));
+    }
+
+    @Test
+    public void responsesFollowingEachOtherAreSplit() {
+        assertEquals(Arrays.asList("tag.get()\r={\"name\":\"Link\"}\r>",
+                        "{\"event\":\"button\"}", "tag.getList()\r=[]\r>"),
+                parseChunked("tag.get()\r\n={\"name\":\"Link\"}\r\n>"
+                        + "{\"event\":\"button\"}\r\n"
+                        + "tag.getList()\r\n=[]\r\n>"));
+    }
+
+    @Test
+    public void resetDropsPartialOutput() {
+        List<String> responses = new ArrayList<>();
+        ResponseParser parser = new ResponseParser(responses::add);
+        parser.append("tag.get()\r\n={\"na");
+        parser.reset();
+        parser.append("tag.getList()\r\n=[]\r\n>");
+        assertEquals(Collections.singletonList("tag.getList()\r=[]\r>"), responses);
+    }
+}
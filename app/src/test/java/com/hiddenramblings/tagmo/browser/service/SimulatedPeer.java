@@ -0,0 +1,103 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A device that handles one GATT operation at a time, taking a fixed time
+ * for each, and reports the results back to the queue like the stack does
+ */
+class SimulatedPeer implements GattPeer {
+
+    interface Device {
+        void onWrite(UUID characteristic, byte[] value);
+    }
+
+    private final VirtualScheduler scheduler;
+    private final GattQueue queue;
+    private final long operationTime;
+    private Device device;
+    private boolean busy;
+    private int refusals;
+    private int overlaps;
+    private final List<String> operations = new ArrayList<>();
+    private final List<byte[]> writes = new ArrayList<>();
+
+    SimulatedPeer(VirtualScheduler scheduler, GattQueue queue, long operationTime) {
+        this.scheduler = scheduler;
+        this.queue = queue;
+        this.operationTime = operationTime;
+    }
+
+    void setDevice(Device device) {
+        this.device = device;
+    }
+
+    /**
+     * Refuses the next submissions as a busy stack would
+     */
+    void refuse(int count) {
+        refusals = count;
+    }
+
+    /**
+     * Operations submitted while another one was still in flight
+     */
+    int getOverlaps() {
+        return overlaps;
+    }
+
+    List<String> getOperations() {
+        return operations;
+    }
+
+    List<byte[]> getWrites() {
+        return writes;
+    }
+
+    private boolean accept(String operation, Runnable result) {
+        if (refusals > 0) {
+            refusals -= 1;
+            return false;
+        }
+        if (busy) {
+            overlaps += 1;
+            return false;
+        }
+        busy = true;
+        operations.add(operation);
+        scheduler.postDelayed(() -> {
+            busy = false;
+            result.run();
+        }, operationTime);
+        return true;
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID characteristic, byte[] value, int writeType) {
+        return accept("write", () -> {
+            writes.add(value);
+            if (null != device) device.onWrite(characteristic, value);
+            queue.onCharacteristicWrite(characteristic, true);
+        });
+    }
+
+    @Override
+    public boolean writeDescriptor(UUID characteristic, UUID descriptor, byte[] value) {
+        return accept("descriptor", () -> queue.onDescriptorWrite(characteristic, true));
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID characteristic) {
+        return accept("read", () -> queue.onCharacteristicRead(characteristic, true));
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        return accept("mtu", () -> {
+            queue.setMtu(mtu);
+            queue.onMtuChanged();
+        });
+    }
+}
@@ -0,0 +1,63 @@
+package com.hiddenramblings.tagmo.browser.service;
+
+import java.util.PriorityQueue;
+
+/**
+ * Runs posted work in order of a virtual clock, so timeouts and retries
+ * complete without waiting in real time
+ */
+class VirtualScheduler implements GattScheduler {
+
+    private static class Task implements Comparable<Task> {
+        final long time;
+        final long order;
+        final Runnable runnable;
+
+        Task(long time, long order, Runnable runnable) {
+            this.time = time;
+            this.order = order;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (time != other.time) return Long.compare(time, other.time);
+            return Long.compare(order, other.order);
+        }
+    }
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private long now;
+    private long order;
+
+    @Override
+    public void post(Runnable runnable) {
+        postDelayed(runnable, 0L);
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMillis) {
+        tasks.add(new Task(now + delayMillis, order++, runnable));
+    }
+
+    @Override
+    public void remove(Runnable runnable) {
+        tasks.removeIf(task -> task.runnable == runnable);
+    }
+
+    @Override
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Runs the posted work, and the work it posts, until nothing is left
+     */
+    void run() {
+        while (!tasks.isEmpty()) {
+            Task task = tasks.poll();
+            now = Math.max(now, task.time);
+            task.runnable.run();
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package com.hiddenramblings.tagmo.nfctech;
+
+import android.nfc.Tag;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * In-memory NTAG215, N2 Elite or PowerTag with simulated latency and
+ * injected failures, used to count round trips of the read and write
+ * paths without a device
+ */
+@SuppressWarnings("unused")
+class TagEmulator implements TagTransport {
+
+    enum Type {
+        NTAG215,
+        ELITE,
+        POWERTAG
+    }
+
+    private static final int PAGE_COUNT = 135;
+    private static final int PAGE_DYN_LOCK = 0x82;
+    private static final int PAGE_CFG0 = 0x83;
+    private static final int PAGE_PWD = 0x85;
+    private static final int PAGE_PACK = 0x86;
+    private static final byte ACK = 0x0A;
+    private static final byte[] VERSION = TagUtils.hexToByteArray("0004040201001103");
+
+    private final Type type;
+    private final byte[] uid;
+    private final byte[][] banks;
+    private final byte[] signature = new byte[32];
+    private int activeBank = 0;
+    private int bankCount = 1;
+
+    private boolean present = true;
+    private boolean connected = false;
+    private boolean halted = false;
+    private boolean authenticated = false;
+    private boolean compatWrite = false;
+    // AUTH0 as read from CFG0 when the tag was last activated
+    private int auth0 = 0xFF;
+
+    private int maxTransceiveLength = 253;
+    private int timeout = 618; // Android default for NfcA
+
+    private long exchangeMicros = 0;
+    private long byteMicros = 0;
+    private boolean realtime = false;
+    private Random random = new Random(0);
+    private double failureRate = 0;
+    private int removeAfter = -1;
+
+    private int exchanges;
+    private long bytesSent;
+    private long bytesReceived;
+    private long elapsedMicros;
+
+    TagEmulator(Type type, byte[] uid) {
+        if (null == uid || uid.length != 7)
+            throw new IllegalArgumentException("uid must be 7 bytes");
+        this.type = type;
+        this.uid = Arrays.copyOf(uid, uid.length);
+        int count = type == Type.ELITE ? 200 : 1;
+        this.banks = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            banks[i] = createBlank(this.uid);
+        }
+        if (type == Type.POWERTAG) {
+            System.arraycopy(NfcByte.POWERTAG_SIGNATURE, 0, signature, 0,
+                    NfcByte.POWERTAG_SIGNATURE.length);
+        } else if (type == Type.ELITE) {
+            Arrays.fill(signature, signature.length - 5, signature.length, (byte) 0xFF);
+        }
+    }
+
+    private static byte[] createBlank(byte[] uid) {
+        byte[] data = new byte[PAGE_COUNT * NfcByte.PAGE_SIZE];
+        data[0] = uid[0];
+        data[1] = uid[1];
+        data[2] = uid[2];
+        data[3] = (byte) (0x88 ^ uid[0] ^ uid[1] ^ uid[2]);
+        System.arraycopy(uid, 3, data, 4, 4);
+        data[8] = (byte) (uid[3] ^ uid[4] ^ uid[5] ^ uid[6]);
+        data[9] = (byte) 0x48;
+        System.arraycopy(TagUtils.hexToByteArray("E1103E00"), 0, data, 12, 4);
+        System.arraycopy(TagUtils.hexToByteArray("000000BD"), 0,
+                data, PAGE_DYN_LOCK * NfcByte.PAGE_SIZE, 4);
+        System.arraycopy(TagUtils.hexToByteArray("040000FF000500"), 0,
+                data, PAGE_CFG0 * NfcByte.PAGE_SIZE, 7);
+        Arrays.fill(data, PAGE_PWD * NfcByte.PAGE_SIZE,
+                (PAGE_PWD + 1) * NfcByte.PAGE_SIZE, (byte) 0xFF);
+        return data;
+    }
+
+    /**
+     * Fixed cost of every exchange and additional cost per byte on the air
+     */
+    void setLatency(long exchangeMicros, long byteMicros, boolean realtime) {
+        this.exchangeMicros = exchangeMicros;
+        this.byteMicros = byteMicros;
+        this.realtime = realtime;
+    }
+
+    /**
+     * Drops the given fraction of exchanges. A dropped command may or may
+     * not have been applied by the tag before the response was lost.
+     */
+    void setFailureRate(double failureRate, long seed) {
+        this.failureRate = failureRate;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Removes the tag from the field after the given number of exchanges
+     */
+    void removeAfter(int exchanges) {
+        this.removeAfter = exchanges;
+    }
+
+    void setPresent(boolean present) {
+        this.present = present;
+        if (!present) connected = false;
+    }
+
+    void setMaxTransceiveLength(int maxTransceiveLength) {
+        this.maxTransceiveLength = maxTransceiveLength;
+    }
+
+    void setBankCount(int bankCount) {
+        this.bankCount = Math.max(1, Math.min(banks.length, bankCount));
+    }
+
+    byte[] getBankData(int bank) {
+        return Arrays.copyOf(banks[bank], banks[bank].length);
+    }
+
+    void setBankData(int bank, byte[] data) {
+        System.arraycopy(data, 0, banks[bank], 0, Math.min(data.length, banks[bank].length));
+    }
+
+    int getExchangeCount() {
+        return exchanges;
+    }
+
+    long getBytesSent() {
+        return bytesSent;
+    }
+
+    long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    long getElapsedMicros() {
+        return elapsedMicros;
+    }
+
+    void resetCounters() {
+        exchanges = 0;
+        bytesSent = 0;
+        bytesReceived = 0;
+        elapsedMicros = 0;
+    }
+
+    @Override
+    public String getName() {
+        return "Emulated " + type.name();
+    }
+
+    @Override
+    public Tag getTag() {
+        return null;
+    }
+
+    @Override
+    public byte[] getId() {
+        return Arrays.copyOf(uid, uid.length);
+    }
+
+    @Override
+    public int getMaxTransceiveLength() {
+        return maxTransceiveLength;
+    }
+
+    @Override
+    public int getTimeout() {
+        return timeout;
+    }
+
+    @Override
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (!present) throw new IOException("Tag is not present");
+        connected = true;
+        halted = false;
+        authenticated = false;
+        compatWrite = false;
+        auth0 = memory()[PAGE_CFG0 * NfcByte.PAGE_SIZE + 3] & 0xFF;
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public byte[] transceive(byte[] data) throws IOException {
+        if (!connected) throw new IllegalStateException("Call connect() first!");
+        if (!present) throw new IOException("Tag was lost.");
+        if (data.length > maxTransceiveLength)
+            throw new IOException("Transceive length exceeds supported maximum");
+        if (removeAfter == 0) {
+            setPresent(false);
+            throw new IOException("Tag was lost.");
+        }
+        if (removeAfter > 0) removeAfter -= 1;
+
+        exchanges += 1;
+        bytesSent += data.length;
+        boolean dropped = failureRate > 0 && random.nextDouble() < failureRate;
+        byte[] response = null;
+        if (!dropped || random.nextBoolean()) {
+            response = halted ? null : process(data);
+            if (null == response) halted = true;
+        }
+        long cost = exchangeMicros + byteMicros * (data.length
+                + (null != response ? response.length : 0));
+        elapsedMicros += cost;
+        if (realtime && cost > 0) {
+            try {
+                Thread.sleep(cost / 1000, (int) (cost % 1000) * 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (cost > timeout * 1000L) throw new IOException("Transceive timed out");
+        if (dropped || null == response) throw new IOException("Transceive failed");
+        if (response.length > maxTransceiveLength)
+            throw new IOException("Transceive failed");
+        bytesReceived += response.length;
+        return response;
+    }
+
+    private byte[] memory() {
+        return banks[activeBank];
+    }
+
+    private boolean isWritable(int page) {
+        if (page >= PAGE_COUNT) return false;
+        // PowerTag has writable UID pages and no protection
+        if (type == Type.POWERTAG) return true;
+        if (page < 2) return false;
+        byte[] memory = memory();
+        if (type == Type.NTAG215 && !authenticated && page >= auth0)
+            return false;
+        if (page >= 3 && page <= 7)
+            return (memory[10] & (1 << page)) == 0;
+        if (page >= 8 && page <= 15)
+            return (memory[11] & (1 << (page - 8))) == 0;
+        return true;
+    }
+
+    private void writePage(byte[] memory, int page, byte[] data, int offset) {
+        int address = page * NfcByte.PAGE_SIZE;
+        if (type != Type.POWERTAG && page == 2) {
+            // Lock bytes are one time programmable
+            memory[address + 2] |= data[offset + 2];
+            memory[address + 3] |= data[offset + 3];
+        } else if (type != Type.POWERTAG && page == 3) {
+            for (int i = 0; i < NfcByte.PAGE_SIZE; i++)
+                memory[address + i] |= data[offset + i];
+        } else {
+            System.arraycopy(data, offset, memory, address, NfcByte.PAGE_SIZE);
+        }
+    }
+
+    private byte[] readPages(byte[] memory, int start, int end) {
+        byte[] response = new byte[(end - start + 1) * NfcByte.PAGE_SIZE];
+        for (int page = start, i = 0; page <= end; page++, i += NfcByte.PAGE_SIZE) {
+            int wrapped = page % PAGE_COUNT;
+            if (type == Type.NTAG215 && (wrapped == PAGE_PWD || wrapped == PAGE_PACK))
+                continue;
+            System.arraycopy(memory, wrapped * NfcByte.PAGE_SIZE,
+                    response, i, NfcByte.PAGE_SIZE);
+        }
+        return response;
+    }
+
+    private byte[] process(byte[] data) {
+        int command = data[0] & 0xFF;
+        if (compatWrite) {
+            // Second frame of COMPATIBILITY_WRITE carries 16 bytes of which 4 are kept
+            compatWrite = false;
+            return data.length == 16 ? new byte[]{ ACK } : null;
+        }
+        switch (command) {
+            case NfcByte.CMD_GET_VERSION:
+                return Arrays.copyOf(VERSION, VERSION.length);
+            case NfcByte.CMD_READ:
+                if (data.length < 2 || (data[1] & 0xFF) >= PAGE_COUNT) return null;
+                return readPages(memory(), data[1] & 0xFF, (data[1] & 0xFF) + 3);
+            case NfcByte.CMD_FAST_READ:
+                if (data.length < 3) return null;
+                int start = data[1] & 0xFF;
+                int end = data[2] & 0xFF;
+                if (end < start || end >= PAGE_COUNT) return null;
+                return readPages(memory(), start, end);
+            case NfcByte.CMD_WRITE:
+                if (data.length < 6 || !isWritable(data[1] & 0xFF)) return null;
+                writePage(memory(), data[1] & 0xFF, data, 2);
+                return new byte[]{ ACK };
+            case NfcByte.CMD_COMP_WRITE:
+                if (type != Type.POWERTAG) return null;
+                compatWrite = true;
+                return new byte[]{ ACK };
+            case NfcByte.CMD_PWD_AUTH:
+                if (data.length < 5) return null;
+                if (type == Type.NTAG215) {
+                    byte[] memory = memory();
+                    for (int i = 0; i < 4; i++) {
+                        if (memory[PAGE_PWD * NfcByte.PAGE_SIZE + i] != data[i + 1]) return null;
+                    }
+                    authenticated = true;
+                    return Arrays.copyOfRange(memory, PAGE_PACK * NfcByte.PAGE_SIZE,
+                            PAGE_PACK * NfcByte.PAGE_SIZE + 2);
+                }
+                authenticated = true;
+                return new byte[]{ (byte) 0x80, (byte) 0x80 };
+            case NfcByte.CMD_READ_SIG:
+                return Arrays.copyOf(signature, signature.length);
+            default:
+                return type == Type.ELITE ? processElite(command, data) : null;
+        }
+    }
+
+    private byte[] processElite(int command, byte[] data) {
+        switch (command) {
+            case NfcByte.N2_GET_VERSION:
+                return new byte[]{ (byte) activeBank, (byte) bankCount, 0x00, 0x02 };
+            case NfcByte.N2_READ_SIG:
+                return Arrays.copyOf(signature, signature.length);
+            case NfcByte.N2_ACTIVATE_BANK:
+                if (data.length < 2 || (data[1] & 0xFF) >= bankCount) return null;
+                activeBank = data[1] & 0xFF;
+                return new byte[]{ ACK };
+            case NfcByte.N2_SET_BANKCOUNT:
+                if (data.length < 2 || (data[1] & 0xFF) < 1
+                        || (data[1] & 0xFF) > banks.length) return null;
+                bankCount = data[1] & 0xFF;
+                if (activeBank >= bankCount) activeBank = 0;
+                return new byte[]{ ACK };
+            case NfcByte.N2_FAST_READ: {
+                if (data.length < 4) return null;
+                int start = data[1] & 0xFF;
+                int end = data[2] & 0xFF;
+                int bank = data[3] & 0xFF;
+                if (end < start || end >= PAGE_COUNT || bank >= bankCount) return null;
+                return readPages(banks[bank], start, end);
+            }
+            case NfcByte.N2_FAST_WRITE: {
+                if (data.length < 4) return null;
+                int start = data[1] & 0xFF;
+                int bank = data[2] & 0xFF;
+                int length = data[3] & 0xFF;
+                if (bank >= bankCount || data.length < 4 + length
+                        || length % NfcByte.PAGE_SIZE != 0
+                        || start + length / NfcByte.PAGE_SIZE > PAGE_COUNT) return null;
+                System.arraycopy(data, 4, banks[bank], start * NfcByte.PAGE_SIZE, length);
+                return new byte[]{ ACK };
+            }
+            case NfcByte.N2_WRITE: {
+                if (data.length < 7) return null;
+                int page = data[1] & 0xFF;
+                int bank = data[2] & 0xFF;
+                if (bank >= bankCount || page >= PAGE_COUNT) return null;
+                System.arraycopy(data, 3, banks[bank],
+                        page * NfcByte.PAGE_SIZE, NfcByte.PAGE_SIZE);
+                return new byte[]{ ACK };
+            }
+            case NfcByte.N2_LOCK:
+            case NfcByte.N2_UNLOCK_2:
+                return new byte[]{ ACK };
+            case NfcByte.N2_UNLOCK_1:
+                return new byte[]{ ACK, ACK };
+            default:
+                // Firmware and vendor commands are acknowledged without effect
+                return (command & 0xF0) == 0xF0 ? new byte[]{ ACK } : null;
+        }
+    }
+}
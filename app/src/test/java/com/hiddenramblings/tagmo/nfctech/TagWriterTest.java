@@ -0,0 +1,197 @@
+package com.hiddenramblings.tagmo.nfctech;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.hiddenramblings.tagmo.TagMo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Drives the write strategies through an emulated tag and counts the
+ * exchanges each one needs at the default transceive length of 253 bytes,
+ * which gives FAST_READ windows of 15 pages and N2 FAST_WRITE windows of 4
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TagWriterTest {
+
+    private static final byte[] UID = TagUtils.hexToByteArray("04A1B2C3D4E5F6");
+    // Pages 0 through 0x84 of an amiibo dump
+    private static final int TAG_PAGES = NfcByte.TAG_FILE_SIZE / NfcByte.PAGE_SIZE;
+
+    private static NTAG215 connect(TagEmulator emulator) throws Exception {
+        NTAG215 tag = new NTAG215(emulator);
+        tag.connect();
+        return tag;
+    }
+
+    private static byte[] getPages(byte[] data, int start, int end) {
+        return Arrays.copyOfRange(data,
+                start * NfcByte.PAGE_SIZE, (end + 1) * NfcByte.PAGE_SIZE);
+    }
+
+    /**
+     * A dump for the emulated tag whose data pages 4 to 129 all differ
+     * from a blank tag
+     */
+    private static byte[] getTagData(TagEmulator emulator) {
+        byte[] tagData = Arrays.copyOf(emulator.getBankData(0), NfcByte.TAG_FILE_SIZE);
+        for (int i = 4 * NfcByte.PAGE_SIZE; i < 130 * NfcByte.PAGE_SIZE; i++) {
+            tagData[i] = (byte) (i * 7 + 1);
+        }
+        return tagData;
+    }
+
+    private static List<Callable<byte[]>> getPayloads(int count) {
+        List<Callable<byte[]>> payloads = new ArrayList<>();
+        for (int bank = 0; bank < count; bank++) {
+            byte[] payload = new byte[NfcByte.TAG_FILE_SIZE];
+            Arrays.fill(payload, (byte) (bank + 1));
+            payloads.add(() -> payload);
+        }
+        return payloads;
+    }
+
+    private static void assertPayloads(TagEmulator emulator, List<Callable<byte[]>> payloads)
+            throws Exception {
+        for (int bank = 0; bank < payloads.size(); bank++) {
+            assertArrayEquals(payloads.get(bank).call(),
+                    getPages(emulator.getBankData(bank), 0, TAG_PAGES - 1));
+        }
+    }
+
+    private static void assertLocked(TagEmulator emulator) {
+        byte[] data = emulator.getBankData(0);
+        assertEquals((byte) 0x0F, data[2 * NfcByte.PAGE_SIZE + 2]);
+        assertEquals((byte) 0xE0, data[2 * NfcByte.PAGE_SIZE + 3]);
+        assertEquals((byte) 0x04, data[0x83 * NfcByte.PAGE_SIZE + 3]);
+    }
+
+    @Test
+    public void writeToTagRawWritesAndLocksBlankTag() throws Exception {
+        TagEmulator emulator = new TagEmulator(TagEmulator.Type.NTAG215, UID);
+        byte[] tagData = getTagData(emulator);
+
+        TagWriter.writeToTagRaw(connect(emulator), tagData, true);
+
+        assertEquals(1 // GET_VERSION
+                + 1 // READ of the UID pages, cached for the lock sequence
+                + 9 // FAST_READ of pages 0 to 132 to compare against
+                + 126 // WRITE of data pages 4 to 129, page 3 is unchanged
+                + 2 // PACK and PWD
+                + 4, // lock bytes, dynamic lock, CFG0 and CFG1
+                emulator.getExchangeCount());
+        assertArrayEquals(getPages(tagData, 3, 129),
+                getPages(emulator.getBankData(0), 3, 129));
+        assertLocked(emulator);
+    }
+
+    @Test
+    public void writeToTagRawOnlyWritesDifferingPages() throws Exception {
+        TagEmulator emulator = new TagEmulator(TagEmulator.Type.NTAG215, UID);
+        byte[] tagData = getTagData(emulator);
+        byte[] preset = emulator.getBankData(0);
+        System.arraycopy(tagData, 4 * NfcByte.PAGE_SIZE, preset, 4 * NfcByte.PAGE_SIZE,
+                100 * NfcByte.PAGE_SIZE);
+        emulator.setBankData(0, preset);
+
+        TagWriter.writeToTagRaw(connect(emulator), tagData, true);
+
+        assertEquals(1 + 1 + 9 + 26 + 2 + 4, emulator.getExchangeCount());
+        assertArrayEquals(getPages(tagData, 3, 129),
+                getPages(emulator.getBankData(0), 3, 129));
+    }
+
+    @Test
+    public void writeToTagRawVerifyReadsBackOnce() throws Exception {
+        TagMo.getPrefs().enable_write_verification().put(true);
+        TagEmulator emulator = new TagEmulator(TagEmulator.Type.NTAG215, UID);
+        byte[] tagData = getTagData(emulator);
+
+        TagWriter.writeToTagRaw(connect(emulator), tagData, true);
+
+        // FAST_READ of pages 3 to 129 in 9 windows on top of the write
+        assertEquals(1 + 1 + 9 + 126 + 9 + 2 + 4, emulator.getExchangeCount());
+        assertLocked(emulator);
+    }
+
+    @Test
+    public void writeEliteBanksWritesEachBankInFastWindows() throws Exception {
+        TagEmulator emulator = new TagEmulator(TagEmulator.Type.ELITE, UID);
+        emulator.setBankCount(3);
+        List<Callable<byte[]>> payloads = getPayloads(3);
+
+        TagWriter.writeEliteBanks(connect(emulator), payloads, null);
+
+        assertEquals(1 // FAST_READ of page 0 for the password
+                + 1 // PWD_AUTH
+                + 1 // N2 READ_SIG to find the bank cache
+                + 3 * 34, // N2 FAST_WRITE of 133 pages per bank
+                emulator.getExchangeCount());
+        assertPayloads(emulator, payloads);
+    }
+
+    @Test
+    public void writeEliteBanksVerifyReadsBackEachBank() throws Exception {
+        TagMo.getPrefs().enable_write_verification().put(true);
+        TagEmulator emulator = new TagEmulator(TagEmulator.Type.ELITE, UID);
+        emulator.setBankCount(3);
+        List<Callable<byte[]>> payloads = getPayloads(3);
+
+        TagWriter.writeEliteBanks(connect(emulator), payloads, null);
+
+        // N2 FAST_READ of 133 pages in 9 windows after each bank
+        assertEquals(1 + 1 + 1 + 3 * (34 + 9), emulator.getExchangeCount());
+        assertPayloads(emulator, payloads);
+    }
+
+    @Test
+    public void wipeBanksErasesFullBanks() throws Exception {
+        TagEmulator emulator = new TagEmulator(TagEmulator.Type.ELITE, UID);
+        emulator.setBankCount(3);
+        TagWriter.writeEliteBanks(connect(emulator), getPayloads(3), null);
+        emulator.resetCounters();
+
+        TagWriter.wipeBanks(connect(emulator), 0, 2, null);
+
+        // Authentication and READ_SIG, then 135 pages per bank
+        assertEquals(1 + 1 + 1 + 3 * 34, emulator.getExchangeCount());
+        byte[] blank = new byte[540];
+        Arrays.fill(blank, (byte) 0xFF);
+        for (int bank = 0; bank <= 2; bank++) {
+            assertArrayEquals(blank, emulator.getBankData(bank));
+        }
+    }
+
+    @Test
+    public void wipeBanksErasesIdPages() throws Exception {
+        TagMo.getPrefs().full_bank_erase().put(false);
+        TagEmulator emulator = new TagEmulator(TagEmulator.Type.ELITE, UID);
+        emulator.setBankCount(3);
+        List<Callable<byte[]>> payloads = getPayloads(3);
+        TagWriter.writeEliteBanks(connect(emulator), payloads, null);
+        emulator.resetCounters();
+
+        TagWriter.wipeBanks(connect(emulator), 1, 2, null);
+
+        // Pages 4 to 0x16 of each bank
+        assertEquals(1 + 1 + 1 + 2 * 5, emulator.getExchangeCount());
+        byte[] blank = new byte[(0x16 - 4 + 1) * NfcByte.PAGE_SIZE];
+        Arrays.fill(blank, (byte) 0xFF);
+        for (int bank = 1; bank <= 2; bank++) {
+            byte[] data = emulator.getBankData(bank);
+            assertArrayEquals(blank, getPages(data, 4, 0x16));
+            assertArrayEquals(getPages(payloads.get(bank).call(), 0x17, TAG_PAGES - 1),
+                    getPages(data, 0x17, TAG_PAGES - 1));
+        }
+        assertArrayEquals(payloads.get(0).call(),
+                getPages(emulator.getBankData(0), 0, TAG_PAGES - 1));
+    }
+}